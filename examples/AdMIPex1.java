@@ -17,7 +17,14 @@ package examples;
  *                  a MIP problem
  *
  * To run this example, command line arguments are required.
- * i.e.,   java AdMIPex1   filename
+ * i.e.,   java AdMIPex1   filename [-engine | -pseudo | -compare]
+ *
+ *   -engine    branch with BranchEngine, the rule of MyBranch without
+ *              the per-node getObjCoefs() and getFeasibilities() arrays
+ *   -pseudo    branch with BranchEngine by reliability pseudo-costs
+ *   -compare   solve with MyBranch, -engine and -pseudo in turn and
+ *              compare nodes, time and node throughput.  MySelect is not
+ *              used here, as it scans all open nodes at every node.
  *
  * Example:
  *     java AdMIPex1  example.mps
@@ -95,33 +102,84 @@ public class AdMIPex1 {
         }
     }
 
-    public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: AdMIPex1 filename");
-            System.out.println("   where filename is a file with extension ");
-            System.out.println("      MPS, SAV, or LP (lower case is allowed)");
-            System.out.println(" Exiting...");
-            System.exit(-1);
-        }
+    static final String[] RULES = { "MyBranch", "-engine", "-pseudo" };
 
+    // Solve filename with branching rule r (an index into RULES), return
+    // a line of statistics.
+    static String solve(String filename, int r, boolean select) throws IloException {
+        IloCplex cplex = new IloCplex();
         try {
-            IloCplex cplex = new IloCplex();
-
-            cplex.importModel(args[0]);
+            cplex.importModel(filename);
             IloLPMatrix lp = (IloLPMatrix) cplex.LPMatrixIterator().next();
 
             // 使用use调用callBack类函数
-            cplex.use(new MyBranch(lp.getNumVars()));
-            cplex.use(new MySelect());
-            
+            IloCplex.BranchCallback branch;
+            if (r == 0)
+                branch = new MyBranch(lp.getNumVars());
+            else
+                branch = new BranchEngine(cplex, lp.getNumVars(),
+                                          r == 1 ? BranchEngine.MOST_INFEASIBLE
+                                                 : BranchEngine.PSEUDO_COST);
+            cplex.use(branch);
+            if (select)
+                cplex.use(new MySelect());
+
             // 设置搜索策略
             // Traditional: Use traditional branch-and-cut search.
             cplex.setParam(IloCplex.Param.MIP.Strategy.Search, IloCplex.MIPSearch.Traditional);
-            if (cplex.solve()) {
+            double start = cplex.getCplexTime();
+            boolean feasible = cplex.solve();
+            double seconds = cplex.getCplexTime() - start;
+            long nodes = cplex.getNnodes64();
+            if (feasible) {
                 System.out.println("Solution status = " + cplex.getStatus());
                 System.out.println("Solution value  = " + cplex.getObjValue());
             }
+
+            String line = String.format("%-9s %-8s %12s %10d nodes %8.2f s %10.0f nodes/s",
+                                        RULES[r], cplex.getStatus(),
+                                        feasible ? String.format("%.6g", cplex.getObjValue()) : "-",
+                                        nodes, seconds, nodes / Math.max(seconds, 1e-3));
+            if (branch instanceof BranchEngine)
+                line += "\n          " + branch;
+            return line;
+        } finally {
             cplex.end();
+        }
+    }
+
+    public static void main(String[] args) {
+        int rule = 0;
+        boolean compare = false;
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equals("-engine"))
+                rule = 1;
+            else if (args[i].equals("-pseudo"))
+                rule = 2;
+            else if (args[i].equals("-compare"))
+                compare = true;
+            else
+                args = new String[0];
+        }
+        if (args.length < 1) {
+            System.out.println("Usage: AdMIPex1 filename [-engine | -pseudo | -compare]");
+            System.out.println("   where filename is a file with extension ");
+            System.out.println("      MPS, SAV, or LP (lower case is allowed)");
+            System.out.println(" Exiting...");
+            System.exit(-1);
+        }
+
+        try {
+            if (compare) {
+                String[] lines = new String[RULES.length];
+                for (int r = 0; r < RULES.length; ++r)
+                    lines[r] = solve(args[0], r, false);
+                System.out.println();
+                for (String line : lines)
+                    System.out.println(line);
+            } else {
+                System.out.println(solve(args[0], rule, true));
+            }
         } catch (IloException e) {
             System.err.println("Concert exception caught: " + e);
         }
@@ -58,11 +58,19 @@ public class AdMIPex5 {
         private final IloModeler modeler;
         private final IloNumVar[] used;
         private final IloNumVar[][] supply;
+        /** used[j] is at usedAt + j, supply[c][j] at supplyAt + c * used.length + j. */
+        private final VarLayout layout = new VarLayout();
+        private final int usedAt;
+        private final int supplyAt;
+        /** Print every cut that is added. */
+        boolean verbose = true;
 
         public Disaggregated(IloModeler modeler, IloNumVar[] used, IloNumVar[][] supply) {
             this.modeler = modeler;
             this.used = used;
             this.supply = supply;
+            this.usedAt = layout.add(used);
+            this.supplyAt = layout.add(supply);
         }
 
         /**
@@ -78,16 +86,20 @@ public class AdMIPex5 {
             int nbLocations = used.length;
             int nbClients = supply.length;
 
-            // For each j and c check whether in the current solution (obtained by
-            // calls to getValue()) we have supply[c][j]>used[j]. If so, then we have
-            // found a violated constraint and add it as a cut.
+            // Fetch the whole solution with one getValues() call.
+            double[] x = getValues(layout.vars());
+
+            // For each j and c check whether in the current solution we have
+            // supply[c][j]>used[j]. If so, then we have found a violated
+            // constraint and add it as a cut.
             for (int j = 0; j < nbLocations; ++j) {
+                double o = x[usedAt + j];
                 for (int c = 0; c < nbClients; ++c) {
-                    double s = getValue(supply[c][j]);
-                    double o = getValue(used[j]);
+                    double s = x[supplyAt + c * nbLocations + j];
                     if (s > o + EPS) {
-                        System.out.println(
-                                "Adding: %s <= %s [%f > %f]".format(supply[c][j].getName(), used[j].getName(), s, o));
+                        if (verbose)
+                            System.out.println(String.format("Adding: %s <= %s [%f > %f]",
+                                    supply[c][j].getName(), used[j].getName(), s, o));
                         add(modeler.le(modeler.diff(supply[c][j], used[j]), 0.0), IloCplex.CutManagement.UseCutPurge);
                     }
                 }
@@ -98,21 +110,28 @@ public class AdMIPex5 {
     /**
      * Variant of the Disaggregated callback that does not look for violated cuts
      * dynamically. Instead it uses a static table of cuts and scans this table for
-     * violated cuts.
+     * violated cuts. The table is compiled into a {@link CutTable}, so a scan is
+     * one bulk {@link #getValues(IloNumVar[])} and one pass over its nonzeros.
      */
     public static class CutsFromTable extends IloCplex.UserCutCallback {
-        private final Vector<IloRange> cuts;
+        private final CutTable table;
+        private final CutTable.Work work;
+        /** Print every cut that is added. */
+        boolean verbose = true;
 
-        public CutsFromTable(Vector<IloRange> cuts) {
-            this.cuts = cuts;
+        public CutsFromTable(Vector<IloRange> cuts) throws IloException {
+            this.table = new CutTable(cuts);
+            this.work = table.work();
         }
 
         public void main() throws IloException {
-            for (final IloRange cut : cuts) {
-                double lhs = getValue(cut.getExpr());
-                if (lhs < cut.getLB() - EPS || lhs > cut.getUB() + EPS) {
-                    System.out.println("Adding %s [lhs=%f]".format(cut.toString(), lhs));
-                }
+            int n = table.violated(getValues(table.vars()), work, EPS);
+            for (int i = 0; i < n; ++i) {
+                int k = work.violated[i];
+                IloRange cut = table.range(k);
+                if (verbose)
+                    System.out.println("Adding " + cut + " [lhs=" + work.activity[k] + "]");
+                add(cut, IloCplex.CutManagement.UseCutPurge);
             }
         }
     }
@@ -166,6 +185,7 @@ public class AdMIPex5 {
         System.out.println("               static table that holds all cuts and");
         System.out.println("               scan that table for violated cuts.");
         System.out.println("  -no-cuts     Do not separate any cuts.");
+        System.out.println("  -quiet       Do not print the cuts that are added.");
         System.out.println("  -lazy        Do not include capacity constraints in the");
         System.out.println("               model. Instead, separate them from a lazy");
         System.out.println("               constraint callback.");
@@ -180,6 +200,7 @@ public class AdMIPex5 {
         boolean fromTable = false;
         boolean lazy = false;
         boolean useCallback = true;
+        boolean verbose = true;
 
         for (final String arg : args) {
             if (arg.startsWith("-data="))
@@ -190,6 +211,8 @@ public class AdMIPex5 {
                 lazy = true;
             else if (arg.equals("-no-cuts"))
                 useCallback = false;
+            else if (arg.equals("-quiet"))
+                verbose = false;
             else {
                 System.out.println("Unknown argument " + arg);
                 usage();
@@ -269,9 +292,13 @@ public class AdMIPex5 {
                     for (int j = 0; j < nbLocations; ++j)
                         for (int c = 0; c < nbClients; ++c)
                             cuts.add(cplex.le(cplex.diff(supply[c][j], used[j]), 0.0));
-                    cplex.use(new CutsFromTable(cuts));
+                    CutsFromTable cb = new CutsFromTable(cuts);
+                    cb.verbose = verbose;
+                    cplex.use(cb);
                 } else {
-                    cplex.use(new Disaggregated(cplex, used, supply));
+                    Disaggregated cb = new Disaggregated(cplex, used, supply);
+                    cb.verbose = verbose;
+                    cplex.use(cb);
                 }
             }
             if (lazy)
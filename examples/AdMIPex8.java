@@ -16,7 +16,7 @@ package examples;
 import ilog.concert.*;
 import ilog.cplex.*;
 import java.io.File;
-import java.util.Vector;
+import java.util.Arrays;
 
 /** AdMIPex8.java -- Solve a facility location problem with cut or lazy
  *                   constraint using the new callback api.
@@ -54,17 +54,67 @@ public class AdMIPex8 {
     *      location.
     *    - fromTable: do the same using a cut table.
     *    - lazyCapacity: adds the capacity constraint as a lazy constrain.
+    *
+    * Everything the separators write to is in a Scratch that belongs to one
+    * CPLEX thread; the callback itself is only read after setup, so it runs
+    * under a PerThreadCallback with any number of threads.
     */
-   private static class FacilityCallback implements IloCplex.Callback.Function {
+   private static class FacilityCallback
+      implements PerThreadCallback.Factory<FacilityCallback.Scratch>,
+                 PerThreadCallback.Handler<FacilityCallback.Scratch> {
+      /** Buffers of one thread. */
+      static class Scratch extends PerThreadCallback.Local {
+         CutTable.Work work;
+         double[] served;
+         IloRange[] violated;
+
+         Scratch(VarLayout layout, int threadId) {
+            super(layout, threadId);
+         }
+      }
+
       private final IloNumVar[] opened;
       private final IloNumVar[][] supply;
-      private final Vector<IloRange> cuts;
+      /** Compiled cut table, if the callback scans one. */
+      private CutTable table;
+      /** If set, every cut added is counted there. */
+      SolverMonitor monitor;
+      /** Print every cut that is added. */
+      boolean verbose = true;
+      /** All variables in one array: opened[j] is at openedAt + j and
+       * supply[c][j] at supplyAt + c * opened.length + j.
+       */
+      private final VarLayout layout = new VarLayout();
+      private final int openedAt;
+      private final int supplyAt;
       public FacilityCallback(IloNumVar[] opened,
                               IloNumVar[][] supply)
       {
          this.opened = opened;
          this.supply = supply;
-         this.cuts = new Vector<IloRange>();
+         this.openedAt = layout.add(opened);
+         this.supplyAt = layout.add(supply);
+      }
+
+      @Override
+      public Scratch create (int threadId) {
+         Scratch s = new Scratch(layout, threadId);
+         if ( table != null )
+            s.work = table.work();
+         if ( capacity != null ) {
+            s.served = new double[opened.length];
+            s.violated = new IloRange[opened.length];
+         }
+         return s;
+      }
+
+      /** Count a user cut in the monitor, if any, and the JFR event of the
+       * running invocation.
+       */
+      private void cutAdded() {
+         if ( monitor != null )
+            monitor.addUserCuts(1);
+         CplexEvents.posted(1, 0);
       }
 
       /** Separate the disaggregated capacity constraints.
@@ -76,40 +126,50 @@ public class AdMIPex8 {
        * that must be satisfied by every feasible solution. These constraints tend
        * to be violated in LP relaxation. In this callback we separate them.
        */
-      private void disaggregate (IloCplex.Callback.Context context) throws IloException {
+      private void disaggregate (IloCplex.Callback.Context context, Scratch scratch) throws IloException {
          final int nbLocations = opened.length;
          final int nbClients = supply.length;
          final IloCplexModeler m = context.getCplex();
       
-         // For each j and c check whether in the current solution (obtained by
-         // calls to getValue()) we have supply[c][j]>opened[j]. If so, then we have
-         // found a violated constraint and add it as a cut.
+         // Fetch the whole relaxation point with one call.
+         final double[] x = scratch.relaxation(context);
+
+         // For each j and c check whether in the current solution we have
+         // supply[c][j]>opened[j]. If so, then we have found a violated
+         // constraint and add it as a cut.
          for (int j = 0; j < nbLocations; ++j) {
+            final double o = x[openedAt + j];
             for (int c = 0; c < nbClients; ++c) {
-               final double s = context.getRelaxationPoint(supply[c][j]);
-               final double o = context.getRelaxationPoint(opened[j]);
+               final double s = x[supplyAt + c * nbLocations + j];
                if ( s > o + EPS) {
-                  System.out.println("Adding: " + supply[c][j].getName() + " <= " +
-                                     opened[j].getName() + " [" + s + " > " +
-                                     o + "]");
+                  if ( verbose )
+                     System.out.println("Adding: " + supply[c][j].getName() + " <= " +
+                                        opened[j].getName() + " [" + s + " > " +
+                                        o + "]");
                   context.addUserCut(m.le(m.diff(supply[c][j], opened[j]), 0.0),
                                      IloCplex.CutManagement.UseCutPurge, false);
+                  cutAdded();
                }
             }
          }
       }
       
-      /** Variant of {@link #disaggregate(IloCplex.Callback.Context)} that does
+      /** Variant of {@link #disaggregate(IloCplex.Callback.Context, Scratch)} that does
        * not look for violated cuts dynamically.
        * Instead it uses a static table of cuts and scans this table for violated cuts.
        */
-      private void cutsFromTable (IloCplex.Callback.Context context) throws IloException {
-         for (IloRange cut : cuts) {
-            final double lhs = context.getRelaxationValue(cut.getExpr());
-            if (lhs < cut.getLB() - EPS || lhs > cut.getUB() + EPS ) {
-               System.out.println("Adding: " + cut + " [lhs = " + lhs + "]");
-               context.addUserCut(cut, IloCplex.CutManagement.UseCutPurge, false);
-            }
+      private void cutsFromTable (IloCplex.Callback.Context context, Scratch scratch) throws IloException {
+         // One bulk fetch of the relaxation point and one pass over the
+         // compiled table instead of a getRelaxationValue() call per cut.
+         final CutTable.Work work = scratch.work;
+         final int n = table.violated(context, work, EPS);
+         for (int i = 0; i < n; ++i) {
+            final int k = work.violated[i];
+            final IloRange cut = table.range(k);
+            if ( verbose )
+               System.out.println("Adding: " + cut + " [lhs = " + work.activity[k] + "]");
+            context.addUserCut(cut, IloCplex.CutManagement.UseCutPurge, false);
+            cutAdded();
          }
       }
       
@@ -120,10 +180,30 @@ public class AdMIPex8 {
          final int nbClients = supply.length;
          // Generate all disaggregated constraints and put them into a
          // table that is scanned by the callback.
-         cuts.setSize(0);
+         final IloRange[] cuts = new IloRange[nbLocations * nbClients];
          for (int j = 0; j < nbLocations; ++j)
             for (int c = 0; c < nbClients; ++c)
-               cuts.add(cplex.le(cplex.diff(supply[c][j], opened[j]), 0.0));
+               cuts[j * nbClients + c] = cplex.le(cplex.diff(supply[c][j], opened[j]), 0.0);
+         table = new CutTable(cuts);
+      }
+
+      /** Capacity constraints for the lazy constraint callback, one per
+       * location, built by populateCapacity.
+       */
+      private IloRange[] capacity;
+      /** Build the capacity constraints that lazyCapacity may reject with.
+       */
+      public void populateCapacity (IloCplexModeler cplex) throws IloException {
+         final int nbLocations = opened.length;
+         final int nbClients = supply.length;
+         capacity = new IloRange[nbLocations];
+         for (int j = 0; j < nbLocations; ++j) {
+            IloLinearNumExpr sum = cplex.linearNumExpr();
+            for (int c = 0; c < nbClients; ++c)
+               sum.addTerm(1.0, supply[c][j]);
+            sum.addTerm(-(nbClients - 1), opened[j]);
+            capacity[j] = cplex.le(sum, 0.0);
+         }
       }
 
       /** Lazy constraint callback to enforce the capacity constraints.
@@ -131,46 +211,57 @@ public class AdMIPex8 {
        * CPLEX finds. For each location j it checks whether constraint
        *    sum(c in C) supply[c][j] <= (|C| - 1) * opened[j]
        * is satisfied. If not then it adds the violated constraint as lazy constraint.
+       * The candidate is fetched with one call, all locations are checked in
+       * one pass over it, and all violated constraints are rejected together.
        */
-      private void lazyCapacity (IloCplex.Callback.Context context) throws IloException {
+      private void lazyCapacity (IloCplex.Callback.Context context, Scratch scratch) throws IloException {
          final int nbLocations = opened.length;
          final int nbClients = supply.length;
-         final IloCplexModeler m = context.getCplex();
          if ( !context.isCandidatePoint() )
             throw new IloException("Unbounded solution");
+         final double[] x = scratch.candidate(context);
+         final double[] served = scratch.served;
+         final IloRange[] violated = scratch.violated;
+
+         // supply is laid out client by client, so sum row by row.
+         Arrays.fill(served, 0.0);
+         for (int c = 0; c < nbClients; ++c) {
+            final int row = supplyAt + c * nbLocations;
+            for (int j = 0; j < nbLocations; ++j)
+               served[j] += x[row + j];
+         }
+
+         int n = 0;
          for (int j = 0; j < nbLocations; ++j) {
-            final double isUsed = context.getCandidatePoint(opened[j]);
-            double served = 0.0; // Number of clients currently served from j
-            for (int c = 0; c < nbClients; ++c)
-               served += context.getCandidatePoint(supply[c][j]);
-            if ( served > (nbClients - 1.0) * isUsed + EPS ) {
-               IloLinearNumExpr sum = m.linearNumExpr();
-               for (int c = 0; c < nbClients; ++c)
-                  sum.addTerm(1.0, supply[c][j]);
-               sum.addTerm(-(nbClients - 1), opened[j]);
-               System.out.println("Adding lazy capacity constraint " + sum +
-                                  " <= 0");
-               context.rejectCandidate(m.le(sum, 0.0));
+            if ( served[j] > (nbClients - 1.0) * x[openedAt + j] + EPS ) {
+               if ( verbose )
+                  System.out.println("Adding lazy capacity constraint " + capacity[j]);
+               violated[n++] = capacity[j];
             }
          }
+         if ( n > 0 ) {
+            context.rejectCandidate(n == nbLocations ? violated
+                                    : Arrays.copyOf(violated, n));
+            CplexEvents.posted(n, 0);
+         }
       }
 
-      /** This is the function that we have to implement and that CPLEX will call 
+      /** This is the function that CPLEX calls, through the PerThreadCallback,
        * during the solution process at the places that we asked for.
        */
       @Override
-      public void invoke (IloCplex.Callback.Context context) throws IloException {
+      public void invoke (IloCplex.Callback.Context context, Scratch scratch) throws IloException {
          if ( context.inRelaxation() ) {
-            if ( cuts.size() > 0 ) {
-               cutsFromTable(context);
+            if ( table != null ) {
+               cutsFromTable(context, scratch);
             }
             else {
-               disaggregate(context);
+               disaggregate(context, scratch);
             }
          }
 
          if ( context.inCandidate() ) {
-            lazyCapacity (context);
+            lazyCapacity (context, scratch);
          }
       }
    }
@@ -188,6 +279,10 @@ public class AdMIPex8 {
       System.out.println("  -lazy        Do not include capacity constraints in the" );
       System.out.println("               model. Instead, separate them from a lazy"  );
       System.out.println("               constraint callback."                       );
+      System.out.println("  -quiet       Do not print the cuts that are added."   );
+      System.out.println("  -threads=<n> Number of threads (default 1)."          );
+      System.out.println("  -jmx         Publish live statistics as the MBean"     );
+      System.out.println("               examples:type=SolverMonitor,name=AdMIPex8");
       System.out.println("  -data=<dir>  Specify the directory in which the data"    );
       System.out.println("               file facility.dat is located."              );
       System.exit(2);
@@ -199,6 +294,9 @@ public class AdMIPex8 {
       boolean fromTable = false;
       boolean lazy = false;
       boolean useCallback = true;
+      boolean jmx = false;
+      boolean verbose = true;
+      int threads = 1;
 
       for (final String arg : args) {
          if ( arg.startsWith("-data=") )
@@ -209,6 +307,12 @@ public class AdMIPex8 {
             lazy = true;
          else if ( arg.equals("-no-cuts") )
             useCallback = false;
+         else if ( arg.equals("-jmx") )
+            jmx = true;
+         else if ( arg.equals("-quiet") )
+            verbose = false;
+         else if ( arg.startsWith("-threads=") )
+            threads = Integer.parseInt(arg.substring(9));
          else {
             System.out.println("Unknown argument " + arg);
             usage();
@@ -224,6 +328,7 @@ public class AdMIPex8 {
 
       IloCplex cplex = new IloCplex();
       try {
+         CplexEvents.ModelBuild build = CplexEvents.beginBuild("AdMIPex8");
          // Create variables.
          // - opened[j]    If location j is used.
          // - supply[c][j] Amount shipped from location j to client c. This is a
@@ -265,10 +370,11 @@ public class AdMIPex8 {
             obj.add(cplex.scalProd(cost[c], supply[c]));
          }
          cplex.addMinimize(obj);
+         CplexEvents.endBuild(build, cplex);
 
          // Tweak some CPLEX parameters so that CPLEX has a harder time to
          // solve the model and our cut separators can actually kick in.
-         cplex.setParam(IloCplex.Param.Threads, 1);
+         cplex.setParam(IloCplex.Param.Threads, threads);
          cplex.setParam(IloCplex.Param.MIP.Strategy.HeuristicFreq, -1);
          cplex.setParam(IloCplex.Param.MIP.Cuts.MIRCut, -1);
          cplex.setParam(IloCplex.Param.MIP.Cuts.Implied, -1);
@@ -284,6 +390,7 @@ public class AdMIPex8 {
          // Now we get to setting up the callback.
          // We instanciate a FacilityCallback and set the wherefrom parameter.
          FacilityCallback fcCallback = new FacilityCallback(opened, supply);
+         fcCallback.verbose = verbose;
          long wherefrom = 0;
          if ( useCallback ) {
             wherefrom |= IloCplex.Callback.Context.Id.Relaxation;
@@ -292,14 +399,38 @@ public class AdMIPex8 {
             }
          }
 
-         if ( lazy )
+         if ( lazy ) {
             wherefrom |= IloCplex.Callback.Context.Id.Candidate;
+            fcCallback.populateCapacity(cplex);
+         }
 
-         // If wherefrom is not zero we add the callback.
-         if ( wherefrom != 0 )
-            cplex.use(fcCallback, wherefrom);
+         // If wherefrom is not zero we add the callback. It runs under a
+         // PerThreadCallback that hands every thread its own scratch buffers.
+         // With -jmx the monitor wraps it, since an IloCplex has only one
+         // generic callback. The callback is traced with JFR events in
+         // either case.
+         PerThreadCallback<FacilityCallback.Scratch> perThread =
+            new PerThreadCallback<FacilityCallback.Scratch>(
+               PerThreadCallback.threads(cplex), fcCallback);
+         perThread.on(wherefrom, fcCallback);
+         IloCplex.Callback.Function traced = CplexEvents.traced(perThread);
+         SolverMonitor monitor = null;
+         if ( jmx ) {
+            monitor = SolverMonitor.attach(cplex, traced, perThread.where());
+            fcCallback.monitor = monitor;
+            monitor.register("AdMIPex8");
+         }
+         else if ( wherefrom != 0 )
+            cplex.use(traced, perThread.where());
 
-         if ( !cplex.solve() )
+         boolean solved = CplexEvents.solve(cplex);
+         if ( monitor != null ) {
+            System.out.println("Monitor: " + monitor);
+            monitor.close();
+         }
+         if ( wherefrom != 0 )
+            System.out.print(perThread.report());
+         if ( !solved )
             throw new RuntimeException("No feasible solution found");
 	
          System.out.println("Solution status:                   " +
@@ -29,14 +29,21 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class AdMIPex9 {
-   private static class HeuristicCallback implements IloCplex.Callback.Function {
+   // Runs under a PerThreadCallback: the rounded point is built in a buffer
+   // of the calling thread, everything else is read-only.
+   private static class HeuristicCallback
+      implements PerThreadCallback.Factory<PerThreadCallback.Local>,
+                 PerThreadCallback.Handler<PerThreadCallback.Local> {
       /** All variables in the model. */
       IloNumVar[] _vars;
       /** Dense objective vector (aligned with <code>_vars</code>. */
       double[] _obj;
+      /** Layout holding just <code>_vars</code>. */
+      VarLayout _layout = new VarLayout();
 
       public HeuristicCallback(IloNumVar[] vars, IloObjective obj) throws IloException {
          _vars = vars;
+         _layout.add(vars);
 
          // Generate the objective as a double array for easy look up
          IloLinearNumExpr objexp     = (IloLinearNumExpr)obj.getExpr();
@@ -60,8 +67,14 @@ public class AdMIPex9 {
          }
       }
 
-      private void roundDown(IloCplex.Callback.Context context) throws IloException {
-         double[] x       = context.getRelaxationPoint(_vars);
+      @Override
+      public PerThreadCallback.Local create(int threadId) {
+         return new PerThreadCallback.Local(_layout, threadId);
+      }
+
+      private void roundDown(IloCplex.Callback.Context context,
+                             PerThreadCallback.Local local) throws IloException {
+         double[] x       = local.relaxation(context);
          int    cols      = _vars.length;
          double objrel    = context.getRelaxationObjective();
 
@@ -89,14 +102,17 @@ public class AdMIPex9 {
          // Post the rounded solution, CPLEX will check feasibility.
          context.postHeuristicSolution(_vars, x, 0, cols, objrel,
                                         IloCplex.Callback.Context.SolutionStrategy.CheckFeasible);
+         CplexEvents.posted(0, 1);
       }
 
-      // This is the function that we have to implement and that CPLEX will call
-      // during the solution process at the places that we asked for.
+      // This is the function that CPLEX will call, through the
+      // PerThreadCallback, during the solution process at the places that
+      // we asked for.
       @Override
-      public void invoke (IloCplex.Callback.Context context) throws IloException {
+      public void invoke (IloCplex.Callback.Context context,
+                          PerThreadCallback.Local local) throws IloException {
          if ( context.inRelaxation() ) {
-            roundDown(context);
+            roundDown(context, local);
          }
       }
    }
@@ -112,7 +128,7 @@ public class AdMIPex9 {
 
       IloCplex cplex = new IloCplex();
       try {
-         cplex.importModel(args[0]);
+         CplexEvents.importModel(cplex, args[0]);
          IloLPMatrix lp  = (IloLPMatrix)cplex.LPMatrixIterator().next();
          IloNumVar[] vars = lp.getNumVars();
 
@@ -123,16 +139,22 @@ public class AdMIPex9 {
          long wherefrom = 0;
          wherefrom |= IloCplex.Callback.Context.Id.Relaxation;
 
-         // We add the callback.
-         cplex.use(heuCallback, wherefrom);
+         // We add the callback with per-thread buffers, traced with JFR
+         // events.
+         PerThreadCallback<PerThreadCallback.Local> perThread =
+            new PerThreadCallback<PerThreadCallback.Local>(
+               PerThreadCallback.threads(cplex), heuCallback);
+         perThread.on(wherefrom, heuCallback);
+         cplex.use(CplexEvents.traced(perThread), perThread.where());
 
          // Disable heuristics so that our callback has a chance to make a
          // difference.
          cplex.setParam(IloCplex.Param.MIP.Strategy.HeuristicFreq, -1);
-         if ( cplex.solve() ) {
+         if ( CplexEvents.solve(cplex) ) {
             System.out.println("Solution status = " + cplex.getStatus());
             System.out.println("Solution value  = " + cplex.getObjValue());
          }
+         System.out.print(perThread.report());
       }
       finally {
          cplex.end();
@@ -116,20 +116,22 @@ public class BendersAtsp {
         final IloIntVar[][] x;
         final WorkerLp workerLp;
         final int numNodes;
+        /** All arc variables in one array, x(i,j) at i * numNodes + j. */
+        final IloNumVar[] xFlat;
 
         BendersLazyConsCallback(IloIntVar[][] x, WorkerLp workerLp) {
             this.x = x;
             this.workerLp = workerLp;
             numNodes = x.length;
+            VarLayout layout = new VarLayout();
+            layout.add(x);
+            xFlat = layout.vars();
         }
 
         public void main() throws IloException {
 
-            // Get the current x solution
-            double[][] sol = new double[numNodes][];
-            for (int i = 0; i < numNodes; ++i) {
-                sol[i] = getValues(x[i]);
-            }
+            // Get the current x solution with one call
+            double[] sol = getValues(xFlat);
 
             // Benders' cut separation
             IloRange cut = workerLp.separate(sol, x);
@@ -151,11 +153,16 @@ public class BendersAtsp {
         final IloIntVar[][] x;
         final WorkerLp workerLp;
         final int numNodes;
+        /** All arc variables in one array, x(i,j) at i * numNodes + j. */
+        final IloNumVar[] xFlat;
 
         BendersUserCutCallback(IloIntVar[][] x, WorkerLp workerLp) {
             this.x = x;
             this.workerLp = workerLp;
             numNodes = x.length;
+            VarLayout layout = new VarLayout();
+            layout.add(x);
+            xFlat = layout.vars();
         }
 
         public void main() throws IloException {
@@ -165,11 +172,8 @@ public class BendersAtsp {
                 return;
             }
 
-            // Get the current x solution
-            double[][] sol = new double[numNodes][];
-            for (int i = 0; i < numNodes; ++i) {
-                sol[i] = getValues(x[i]);
-            }
+            // Get the current x solution with one call
+            double[] sol = getValues(xFlat);
 
             // Benders' cut separation
             IloRange cut = workerLp.separate(sol, x);
@@ -319,12 +323,12 @@ public class BendersAtsp {
          * This method separates Benders' cuts violated by the current x solution.
          * Violated cuts are found by solving the worker LP .<br>
          * 
-         * @param xSol
+         * @param xSol x(i,j) at i * numNodes + j
          * @param x
          * @return 约束（割）
          * @throws IloException
          */
-        IloRange separate(double[][] xSol, IloIntVar[][] x) throws IloException {
+        IloRange separate(double[] xSol, IloIntVar[][] x) throws IloException {
 
             int i;
             int j;
@@ -341,7 +345,7 @@ public class BendersAtsp {
             for (k = 1; k < numNodes; ++k) {
                 for (i = 0; i < numNodes; ++i) {
                     for (j = 0; j < numNodes; ++j) {
-                        objExpr.addTerm(v[k - 1][i][j], xSol[i][j]);
+                        objExpr.addTerm(v[k - 1][i][j], xSol[i * numNodes + j]);
                     }
                 }
             }
@@ -141,6 +141,8 @@ public final class BendersAtsp2 {
         private final IloNumVar[] u;
         private final Map<IloNumVar, Integer> varMap = new HashMap<IloNumVar, Integer>();
         private IloObjective obj;
+        /** This thread's copy of the x solution, x(i,j) at i * numNodes + j. */
+        final double[] xSol;
 
         /**
          * The constructor sets up the IloCplex algorithm to solve the worker LP, and
@@ -170,6 +172,7 @@ public final class BendersAtsp2 {
             this.numArcs = numNodes * numNodes;
             this.vNumVars = (numNodes - 1) * numArcs;
             this.uNumVars = (numNodes - 1) * numNodes;
+            this.xSol = new double[numArcs];
             this.dualLpSolver = new IloCplex();
             this.v = dualLpSolver.numVarArray(vNumVars, 0.0, Double.POSITIVE_INFINITY, IloNumVarType.Float);
             this.u = dualLpSolver.numVarArray(uNumVars, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, IloNumVarType.Float);
@@ -251,11 +254,11 @@ public final class BendersAtsp2 {
          * then that cut is returned, otherwise <code>null</code> is returned .<br>
          * 
          * @param x
-         * @param xSol
+         * @param xSol x(i,j) at i * numNodes + j
          * @return
          * @throws IloException
          */
-        IloRange separate(IloNumVar[][] x, double[][] xSol) throws IloException {
+        IloRange separate(IloNumVar[][] x, double[] xSol) throws IloException {
             IloRange cut = null;
 
             /*
@@ -270,7 +273,7 @@ public final class BendersAtsp2 {
             for (int k = 1; k < numNodes; ++k) {
                 for (int i = 0; i < numNodes; ++i) {
                     for (int j = 0; j < numNodes; ++j) {
-                        objExpr.addTerm(xSol[i][j], v[(k - 1) * numArcs + i * numNodes + j]);
+                        objExpr.addTerm(xSol[i * numNodes + j], v[(k - 1) * numArcs + i * numNodes + j]);
                     }
                 }
             }
@@ -340,10 +343,13 @@ public final class BendersAtsp2 {
      */
     private static final class BendersAtspCallback implements IloCplex.Callback.Function {
         private final IloNumVar[][] x;
+        /** All arc variables in one array, x(i,j) at i * numNodes + j. */
+        private final VarLayout layout = new VarLayout();
         private final Worker[] workers;
 
         public BendersAtspCallback(IloNumVar[][] x, int numWorkers) throws IloException {
             this.x = x;
+            this.layout.add(x);
             this.workers = new Worker[numWorkers];
         }
 
@@ -364,27 +370,24 @@ public final class BendersAtsp2 {
                 return;
             }
 
-            // Get the current x solution
-            double[][] xSol = new double[numNodes][];
+            // Get the right worker
+            Worker worker = workers[threadNo];
+
+            // Get the current x solution into the worker's buffer, one call
+            // for all arcs
+            double[] xSol = worker.xSol;
             if (context.inCandidate()) {
                 if (!context.isCandidatePoint()) {
                     // The model is always bounded
                     throw new IloException("Unbounded solution");
                 }
-                for (int i = 0; i < numNodes; ++i) {
-                    xSol[i] = context.getCandidatePoint(x[i]);
-                }
+                layout.candidate(context, xSol);
             } else if (context.inRelaxation()) {
-                for (int i = 0; i < numNodes; ++i) {
-                    xSol[i] = context.getRelaxationPoint(x[i]);
-                }
+                layout.relaxation(context, xSol);
             } else {
                 throw new IloException("Unexpected contextID");
             }
 
-            // Get the right worker
-            Worker worker = workers[threadNo];
-
             // Separate cut
             IloRange violated = worker.separate(x, xSol);
 
@@ -392,9 +395,11 @@ public final class BendersAtsp2 {
                 // Add the cut
                 if (context.inCandidate()) {
                     context.rejectCandidate(violated);
+                    CplexEvents.posted(1, 0);
                 }
                 else if (context.inRelaxation()) {
                     context.addUserCut(violated, IloCplex.CutManagement.UseCutPurge, false);
+                    CplexEvents.posted(1, 0);
                 } else {
                     throw new IloException("Unexpected contextID");
                 }
@@ -440,7 +445,9 @@ public final class BendersAtsp2 {
             // create master ILP
             final int numNodes = arcCost.length;
             final IloNumVar[][] x = new IloNumVar[numNodes][];
+            CplexEvents.ModelBuild build = CplexEvents.beginBuild("BendersAtsp2");
             createMasterILP(masterIlpSolver, x, arcCost);
+            CplexEvents.endBuild(build, masterIlpSolver);
 
             int numThreads = masterIlpSolver.getNumCores();
             
@@ -451,10 +458,10 @@ public final class BendersAtsp2 {
             if (separateFracSols) {
                 contextmask |= IloCplex.Callback.Context.Id.Relaxation;
             }
-            masterIlpSolver.use(cb, contextmask);
+            masterIlpSolver.use(CplexEvents.traced(cb), contextmask);
 
             // Solve the model and write out the solution
-            if (masterIlpSolver.solve()) {
+            if (CplexEvents.solve(masterIlpSolver)) {
                 IloCplex.Status solStatus = masterIlpSolver.getStatus();
                 masterIlpSolver.output().println("Solution status: " + solStatus);
                 masterIlpSolver.output().println("Objective value: " + masterIlpSolver.getObjValue());
@@ -0,0 +1,287 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: BranchEngine.java
+ * --------------------------------------------------------------------------
+ *
+ * BranchEngine.java - Branch callback with cached data and pseudo-costs
+ *
+ * The branch callback of AdMIPex1 asks CPLEX for the values, the objective
+ * coefficients and the integer feasibility of all variables at every node,
+ * three new arrays per node.  A BranchEngine
+ *    - reads the linear objective coefficients, the integer variables and
+ *      the integrality tolerance once, when it is constructed,
+ *    - finds the fractional variables itself from the node values, so the
+ *      only per-node fetch is getValues(), and
+ *    - keeps the candidate list in a per-thread buffer.
+ *
+ * It branches by one of two rules:
+ *    MOST_INFEASIBLE  the rule of AdMIPex1.MyBranch: the variable with
+ *                     the largest fractionality, ties broken by the
+ *                     largest absolute objective coefficient.
+ *    PSEUDO_COST      reliability pseudo-cost branching.  Every child
+ *                     carries in its node data the variable, direction and
+ *                     distance of the bound change that created it and
+ *                     the objective of its parent.  When the child is
+ *                     branched on in turn, the change of the objective per
+ *                     unit of distance is recorded for that variable and
+ *                     direction.  A variable is reliable in a direction
+ *                     after `reliable' observations; until then its
+ *                     pseudo-cost is blended with the average over all
+ *                     variables.  Candidates are scored by the product of
+ *                     the estimated down and up gains.
+ * Children that are pruned or infeasible never reach the callback, so they
+ * teach nothing.  With no observations at all the pseudo-cost score is
+ * f * (1 - f), i.e. the most infeasible variable.
+ *
+ * The statistics are shared by all threads; the engine can be used with
+ * any number of threads.
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BranchEngine extends IloCplex.BranchCallback {
+   static final int MOST_INFEASIBLE = 0;
+   static final int PSEUDO_COST     = 1;
+
+   static final double EPS = 1e-6;
+
+   // What a child node knows about the branch that created it.
+   static class Branch {
+      final int     j;
+      final boolean up;
+      final double  distance;    // how far the bound cut off x[j]
+      final double  parentObj;
+      volatile boolean learned;  // the callback may run twice at a node
+
+      Branch(int j, boolean up, double distance, double parentObj)
+      {
+         this.j         = j;
+         this.up        = up;
+         this.distance  = distance;
+         this.parentObj = parentObj;
+      }
+   }
+
+   final IloNumVar[] vars;
+   final double[]    obj;
+   final boolean[]   integer;
+   final double      tolerance;
+   final double      sense;      // 1 to minimize, -1 to maximize
+   final int         rule;
+   int               reliable = 4;
+
+   // candidate indices, one buffer per thread
+   final ThreadLocal<int[]> candidates = new ThreadLocal<int[]>() {
+         protected int[] initialValue() {
+            return new int[vars.length];
+         }
+      };
+
+   // pseudo-costs per unit of distance, guarded by lock
+   final Object   lock = new Object();
+   final double[] downSum, upSum;
+   final int[]    downCount, upCount;
+   double         downTotal, upTotal;
+   long           downSeen, upSeen;
+
+   final LongAdder calls = new LongAdder();
+   final LongAdder nanos = new LongAdder();
+
+   // vars are the model variables, usually lp.getNumVars().  The
+   // objective and the integrality tolerance are read from cplex now.
+   BranchEngine(IloCplex cplex, IloNumVar[] vars, int rule) throws IloException
+   {
+      int cols = vars.length;
+      this.vars = vars.clone();
+      this.rule = rule;
+
+      IloObjective objective = cplex.getObjective();
+      sense = objective.getSense().equals(IloObjectiveSense.Maximize) ? -1.0 : 1.0;
+      // Only the linear part of the objective is used, to break ties; a
+      // quadratic objective contributes its linear terms, any other
+      // expression none.
+      Map<IloNumVar, Double> coef = new HashMap<IloNumVar, Double>();
+      IloNumExpr expr = objective.getExpr();
+      IloLinearNumExprIterator t = null;
+      if ( expr instanceof IloLinearNumExpr )
+         t = ((IloLinearNumExpr)expr).linearIterator();
+      else if ( expr instanceof IloQuadNumExpr )
+         t = ((IloQuadNumExpr)expr).linearIterator();
+      while ( t != null && t.hasNext() ) {
+         IloNumVar v = t.nextNumVar();
+         coef.put(v, t.getValue());
+      }
+      obj     = new double[cols];
+      integer = new boolean[cols];
+      for (int j = 0; j < cols; ++j) {
+         Double c = coef.get(vars[j]);
+         obj[j]     = c == null ? 0.0 : c;
+         integer[j] = !vars[j].getType().equals(IloNumVarType.Float);
+      }
+      tolerance = cplex.getParam(IloCplex.Param.MIP.Tolerances.Integrality);
+
+      downSum   = new double[cols];
+      upSum     = new double[cols];
+      downCount = new int[cols];
+      upCount   = new int[cols];
+   }
+
+   public void main() throws IloException
+   {
+      if ( !getBranchType().equals(IloCplex.BranchType.BranchOnVariable) )
+         return;
+
+      long start = System.nanoTime();
+      double[] x = getValues(vars);
+      double   z = getObjValue();
+
+      if ( rule == PSEUDO_COST )
+         learn(getNodeData(), z);
+
+      int[] cand = candidates.get();
+      int   n    = fractional(x, cand);
+      int   best = rule == PSEUDO_COST ? pseudoCost(x, cand, n)
+                                       : mostInfeasible(x, cand, n);
+
+      if ( best >= 0 ) {
+         double f = x[best] - Math.floor(x[best]);
+         if ( rule == PSEUDO_COST ) {
+            makeBranch(vars[best], x[best], IloCplex.BranchDirection.Up, z,
+                       new Branch(best, true, 1.0 - f, z));
+            makeBranch(vars[best], x[best], IloCplex.BranchDirection.Down, z,
+                       new Branch(best, false, f, z));
+         }
+         else {
+            makeBranch(vars[best], x[best], IloCplex.BranchDirection.Up, z);
+            makeBranch(vars[best], x[best], IloCplex.BranchDirection.Down, z);
+         }
+      }
+      nanos.add(System.nanoTime() - start);
+      calls.increment();
+   }
+
+   // Put the integer variables with fractional values into cand, return
+   // their number.
+   int fractional(double[] x, int[] cand)
+   {
+      int n = 0;
+      for (int j = 0; j < x.length; ++j) {
+         if ( !integer[j] )
+            continue;
+         double f = x[j] - Math.floor(x[j]);
+         if ( f > tolerance && f < 1.0 - tolerance )
+            cand[n++] = j;
+      }
+      return n;
+   }
+
+   int mostInfeasible(double[] x, int[] cand, int n)
+   {
+      double maxinf = 0.0;
+      double maxobj = 0.0;
+      int    bestj  = -1;
+      for (int k = 0; k < n; ++k) {
+         int j = cand[k];
+         double xj_inf = x[j] - Math.floor(x[j]);
+         if ( xj_inf > 0.5 )
+            xj_inf = 1.0 - xj_inf;
+         if ( xj_inf >= maxinf && (xj_inf > maxinf || Math.abs(obj[j]) >= maxobj) ) {
+            bestj  = j;
+            maxinf = xj_inf;
+            maxobj = Math.abs(obj[j]);
+         }
+      }
+      return bestj;
+   }
+
+   // Pseudo-cost of one direction of a variable: its own average once it
+   // is reliable, before that shrunk towards the average of all variables.
+   double estimate(double sum, int count, double average)
+   {
+      if ( count >= reliable )
+         return sum / count;
+      return (sum + (reliable - count) * average) / reliable;
+   }
+
+   int pseudoCost(double[] x, int[] cand, int n)
+   {
+      double maxscore = -1.0;
+      double maxobj   = 0.0;
+      int    bestj    = -1;
+      synchronized (lock) {
+         double downAverage = downSeen > 0 ? downTotal / downSeen : 1.0;
+         double upAverage   = upSeen   > 0 ? upTotal   / upSeen   : 1.0;
+         for (int k = 0; k < n; ++k) {
+            int j = cand[k];
+            double f    = x[j] - Math.floor(x[j]);
+            double down = f * estimate(downSum[j], downCount[j], downAverage);
+            double up   = (1.0 - f) * estimate(upSum[j], upCount[j], upAverage);
+            double score = Math.max(down, EPS) * Math.max(up, EPS);
+            if ( score >= maxscore && (score > maxscore || Math.abs(obj[j]) >= maxobj) ) {
+               bestj    = j;
+               maxscore = score;
+               maxobj   = Math.abs(obj[j]);
+            }
+         }
+      }
+      return bestj;
+   }
+
+   // Record the objective change of the node created by data, now that
+   // its relaxation objective is z.
+   void learn(Object data, double z)
+   {
+      if ( !(data instanceof Branch) )
+         return;
+      Branch b = (Branch)data;
+      if ( b.learned )
+         return;
+      b.learned = true;
+
+      double gain = Math.max(0.0, sense * (z - b.parentObj)) / b.distance;
+      synchronized (lock) {
+         if ( b.up ) {
+            upSum[b.j] += gain;
+            ++upCount[b.j];
+            upTotal += gain;
+            ++upSeen;
+         }
+         else {
+            downSum[b.j] += gain;
+            ++downCount[b.j];
+            downTotal += gain;
+            ++downSeen;
+         }
+      }
+   }
+
+   // Number of variables reliable in both directions.
+   int reliableVars()
+   {
+      int r = 0;
+      synchronized (lock) {
+         for (int j = 0; j < vars.length; ++j)
+            if ( downCount[j] >= reliable && upCount[j] >= reliable )
+               ++r;
+      }
+      return r;
+   }
+
+   public String toString()
+   {
+      long c = calls.sum();
+      String s = String.format("%d branch calls, %.2f us/call",
+                               c, c == 0 ? 0.0 : nanos.sum() / 1e3 / c);
+      if ( rule == PSEUDO_COST ) {
+         synchronized (lock) {
+            s += String.format(", %d down / %d up observations", downSeen, upSeen);
+         }
+         s += ", " + reliableVars() + " reliable variables";
+      }
+      return s;
+   }
+}
@@ -0,0 +1,195 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: CplexEvents.java
+ * --------------------------------------------------------------------------
+ *
+ * CplexEvents.java - Java Flight Recorder events for solves and callbacks
+ *
+ * Custom JFR events show where the time of a slow solve goes: building
+ * the model, importModel(), solve(), and every invocation of a generic
+ * callback, tagged with the context, the CPLEX thread and the number of
+ * cuts and solutions the invocation posted.  Callback events are added by
+ * a wrapper, so the application callback itself stays as it is:
+ *
+ *    cplex.use(CplexEvents.traced(myCallback), where);
+ *
+ * IloCplex.Callback.Context is a class, not an interface, so the wrapper
+ * cannot observe addUserCut(), rejectCandidate() or
+ * postHeuristicSolution().  A callback that wants the counts in its
+ * events calls CplexEvents.posted(cuts, solutions) next to them; outside
+ * a traced invocation this does nothing.
+ *
+ * Without a running recording the events are disabled and cost a few
+ * field stores.  To record, start the JVM with
+ *    java -XX:StartFlightRecording=filename=solve.jfr ...
+ * and look at the events of category "CPLEX" in JDK Mission Control or
+ * with "jfr print --categories CPLEX solve.jfr".
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class CplexEvents {
+   @Name("examples.ModelBuild")
+   @Label("Model Build")
+   @Category("CPLEX")
+   static class ModelBuild extends Event {
+      @Label("Model")   String model;
+      @Label("Rows")    int    rows;
+      @Label("Columns") int    columns;
+   }
+
+   @Name("examples.ImportModel")
+   @Label("Import Model")
+   @Category("CPLEX")
+   static class ImportModel extends Event {
+      @Label("File")    String file;
+      @Label("Rows")    int    rows;
+      @Label("Columns") int    columns;
+   }
+
+   @Name("examples.Solve")
+   @Label("Solve")
+   @Category("CPLEX")
+   static class Solve extends Event {
+      @Label("Status")    String  status;
+      @Label("Feasible")  boolean feasible;
+      @Label("Objective") double  objective;
+      @Label("Nodes")     long    nodes;
+   }
+
+   @Name("examples.Callback")
+   @Label("Callback Invocation")
+   @Category("CPLEX")
+   static class Invocation extends Event {
+      @Label("Context")      String context;
+      @Label("Context Id")   long   contextId;
+      @Label("CPLEX Thread") int    threadId;
+      @Label("Cuts")         int    cuts;
+      @Label("Solutions")    int    solutions;
+   }
+
+   // the invocation running on this thread, if it is being traced
+   static final ThreadLocal<Invocation> current = new ThreadLocal<Invocation>();
+
+   // Count cuts (user cuts or rejecting lazy constraints) and heuristic
+   // solutions posted by the running callback invocation.
+   static void posted(int cuts, int solutions)
+   {
+      Invocation e = current.get();
+      if ( e != null ) {
+         e.cuts      += cuts;
+         e.solutions += solutions;
+      }
+   }
+
+   static String contextName(long id)
+   {
+      if ( id == IloCplex.Callback.Context.Id.Candidate )      return "Candidate";
+      if ( id == IloCplex.Callback.Context.Id.Relaxation )     return "Relaxation";
+      if ( id == IloCplex.Callback.Context.Id.ThreadUp )       return "ThreadUp";
+      if ( id == IloCplex.Callback.Context.Id.ThreadDown )     return "ThreadDown";
+      if ( id == IloCplex.Callback.Context.Id.GlobalProgress ) return "GlobalProgress";
+      if ( id == IloCplex.Callback.Context.Id.LocalProgress )  return "LocalProgress";
+      return "Unknown";
+   }
+
+   // Emits an Invocation event around every call of the wrapped callback.
+   static class Traced implements IloCplex.Callback.Function {
+      final IloCplex.Callback.Function user;
+
+      Traced(IloCplex.Callback.Function user)
+      {
+         this.user = user;
+      }
+
+      public void invoke(IloCplex.Callback.Context context) throws IloException
+      {
+         Invocation e = new Invocation();
+         if ( !e.isEnabled() ) {
+            user.invoke(context);
+            return;
+         }
+         Invocation outer = current.get();
+         current.set(e);
+         e.begin();
+         try {
+            user.invoke(context);
+         }
+         finally {
+            e.end();
+            current.set(outer);
+            if ( e.shouldCommit() ) {
+               // the info calls cost a JNI round trip, so only for events
+               // that are actually written
+               e.contextId = context.getId();
+               e.context   = contextName(e.contextId);
+               e.threadId  =
+                  context.getIntInfo(IloCplex.Callback.Context.Info.ThreadId);
+               e.commit();
+            }
+         }
+      }
+   }
+
+   static IloCplex.Callback.Function traced(IloCplex.Callback.Function user)
+   {
+      return new Traced(user);
+   }
+
+   // Model building is application code; bracket it with
+   //    ModelBuild b = CplexEvents.beginBuild("name");
+   //    ...
+   //    CplexEvents.endBuild(b, cplex);
+   static ModelBuild beginBuild(String model)
+   {
+      ModelBuild e = new ModelBuild();
+      e.model = model;
+      e.begin();
+      return e;
+   }
+
+   static void endBuild(ModelBuild e, IloCplex cplex)
+   {
+      e.end();
+      if ( e.shouldCommit() ) {
+         e.rows    = cplex.getNrows();
+         e.columns = cplex.getNcols();
+         e.commit();
+      }
+   }
+
+   static void importModel(IloCplex cplex, String file) throws IloException
+   {
+      ImportModel e = new ImportModel();
+      e.file = file;
+      e.begin();
+      cplex.importModel(file);
+      e.end();
+      if ( e.shouldCommit() ) {
+         e.rows    = cplex.getNrows();
+         e.columns = cplex.getNcols();
+         e.commit();
+      }
+   }
+
+   static boolean solve(IloCplex cplex) throws IloException
+   {
+      Solve e = new Solve();
+      e.begin();
+      boolean feasible = cplex.solve();
+      e.end();
+      if ( e.shouldCommit() ) {
+         e.status    = String.valueOf(cplex.getStatus());
+         e.feasible  = feasible;
+         e.objective = feasible ? cplex.getObjValue() : Double.NaN;
+         e.nodes     = cplex.isMIP() ? cplex.getNnodes64() : 0;
+         e.commit();
+      }
+      return feasible;
+   }
+}
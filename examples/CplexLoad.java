@@ -0,0 +1,366 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: CplexLoad.java
+ * --------------------------------------------------------------------------
+ *
+ * CplexLoad.java - Load generator and latency benchmark for CplexServer
+ *
+ * Replays a mix of generated LP and MIP models against a CplexServer at a
+ * fixed request rate, spread round robin over several connections.  The
+ * schedule is open loop: request i is due at start + i / rate whether or
+ * not earlier requests have completed, and its latency is measured from
+ * that due time, so a stalled server shows up in the tail instead of
+ * silently lowering the offered load.
+ *
+ * Latencies go into a log-linear histogram in the style of HdrHistogram
+ * (about 1% relative precision over the whole range), from which p50,
+ * p90, p99, p99.9 and the maximum are reported together with throughput
+ * and error counts.  The report is printed and written as JSON.
+ *
+ * Requests draw from a pool of -models models, each generated with its own
+ * seed, so they differ in structure and fingerprint; repeated models can
+ * be answered from the server's model cache.  A -cold share of the
+ * requests instead sends a model that was never sent before, which always
+ * has to be loaded.  The report tells how many requests repeated a model
+ * and, for a local server, the cache hits and misses next to the
+ * latencies.
+ *
+ * Without -server a server is started in this JVM on a localhost port.
+ *
+ * To run this example:
+ *     java CplexLoad [options]
+ *        -rate=<requests per second>      default 200
+ *        -duration=<seconds>              default 10
+ *        -connections=<n>                 default 8
+ *        -mip=<fraction of MIP models>    default 0.3
+ *        -size=<columns per model>        default 50
+ *        -models=<distinct models>        default 64
+ *        -cold=<fraction of new models>   default 0
+ *        -server=<host:port>              default: start one locally
+ *        -threads=<threads per solve>     default 1 (local server only)
+ *        -report=<file>                   default cplexload.json
+ */
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+public class CplexLoad {
+   double rate        = 200.0;
+   double duration    = 10.0;
+   int    connections = 8;
+   double mipShare    = 0.3;
+   int    size        = 50;
+   int    models      = 64;
+   double cold        = 0.0;
+   String server      = null;
+   int    threads     = 1;
+   String report      = "cplexload.json";
+
+   // Log-linear latency histogram in microseconds.  Values below
+   // 2^SUB_BITS are counted exactly; above that every power of two is split
+   // into HALF equal buckets, so the bucket width is below 1/HALF of the
+   // value.  Recording is lock-free.
+   static class Histogram {
+      static final int SUB_BITS = 7;
+      static final int HALF     = 1 << (SUB_BITS - 1);
+
+      final AtomicLongArray counts = new AtomicLongArray(HALF * 64);
+      final AtomicLong      total  = new AtomicLong();
+      final AtomicLong      max    = new AtomicLong();
+
+      static int index(long v)
+      {
+         int e = Math.max(0, 64 - Long.numberOfLeadingZeros(v) - SUB_BITS);
+         return e == 0 ? (int)v : HALF * e + (int)(v >>> e);
+      }
+
+      // highest value that falls into bucket i
+      static long highest(int i)
+      {
+         if ( i < 2 * HALF )
+            return i;
+         int e = i / HALF - 1;
+         long sub = i - HALF * e;
+         return ((sub + 1) << e) - 1;
+      }
+
+      void record(long micros)
+      {
+         if ( micros < 0 )
+            micros = 0;
+         counts.incrementAndGet(index(micros));
+         total.incrementAndGet();
+         long m;
+         while ( micros > (m = max.get()) && !max.compareAndSet(m, micros) )
+            ;
+      }
+
+      // Smallest recorded value v such that at least p percent of all
+      // values are <= v (reported as the upper end of its bucket).
+      long percentile(double p)
+      {
+         long n = total.get();
+         if ( n == 0 )
+            return 0;
+         long rank = Math.max(1, (long)Math.ceil(p / 100.0 * n));
+         long seen = 0;
+         for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if ( seen >= rank )
+               return Math.min(highest(i), max.get());
+         }
+         return max.get();
+      }
+   }
+
+   // Random LP or MIP in ModelWire form.  The MIP is the LP with integer
+   // columns.
+   static ModelWire randomModel(Random rnd, int ncols, boolean mip)
+   {
+      int nrows = Math.max(1, ncols / 2);
+      ModelWire w = SharedMemory.randomModel(ncols, nrows, 5, rnd.nextLong());
+      for (int j = 0; j < ncols; ++j) {
+         w.obj[j] = rnd.nextDouble();
+         if ( mip ) {
+            w.type[j] = ModelWire.INT;
+            w.ub[j]   = 10.0;
+         }
+      }
+      for (int i = 0; i < nrows; ++i)
+         w.rub[i] = 10.0 + rnd.nextInt(100);
+      return w;
+   }
+
+   void run() throws Exception
+   {
+      Random rnd = new Random(17);
+      ModelWire[] pool = new ModelWire[models];
+      boolean[]   isMip = new boolean[models];
+      for (int m = 0; m < models; ++m) {
+         isMip[m] = rnd.nextDouble() < mipShare;
+         pool[m]  = randomModel(rnd, size, isMip[m]);
+      }
+
+      CplexServer.Server local = null;
+      InetSocketAddress address;
+      if ( server == null ) {
+         local = new CplexServer.Server(new InetSocketAddress("localhost", 0),
+                                        threads);
+         local.start();
+         address = local.getAddress();
+      }
+      else {
+         int colon = server.lastIndexOf(':');
+         address = new InetSocketAddress(server.substring(0, colon),
+                                         Integer.parseInt(server.substring(colon + 1)));
+      }
+
+      CplexServer.Client[] clients = new CplexServer.Client[connections];
+      for (int c = 0; c < connections; ++c)
+         clients[c] = new CplexServer.Client(address);
+
+      final Histogram  lp     = new Histogram();
+      final Histogram  mip    = new Histogram();
+      final AtomicLong errors = new AtomicLong();
+      final Map<String, AtomicLong> statuses =
+         new TreeMap<String, AtomicLong>();
+      long requests = (long)(rate * duration);
+      long interval = (long)(1e9 / rate);
+      long late     = 0;   // requests sent more than an interval late
+      long repeated = 0;   // requests with a model sent before
+      boolean[] sent = new boolean[models];
+
+      try {
+         long start = System.nanoTime();
+         for (long i = 0; i < requests; ++i) {
+            final long due = start + i * interval;
+
+            // pick the model before waiting, a cold one takes a moment
+            ModelWire model;
+            boolean   isMipModel;
+            if ( rnd.nextDouble() < cold ) {
+               isMipModel = rnd.nextDouble() < mipShare;
+               model      = randomModel(rnd, size, isMipModel);
+            }
+            else {
+               int m = rnd.nextInt(models);
+               if ( sent[m] )
+                  ++repeated;
+               sent[m]    = true;
+               isMipModel = isMip[m];
+               model      = pool[m];
+            }
+
+            long wait = due - System.nanoTime();
+            if ( wait > 0 )
+               LockSupport.parkNanos(wait);
+            else if ( -wait > interval )
+               ++late;
+
+            final Histogram h = isMipModel ? mip : lp;
+            CompletableFuture<CplexServer.SolutionData> f =
+               (CompletableFuture<CplexServer.SolutionData>)
+               clients[(int)(i % connections)].submit(model);
+            f.whenComplete(new BiConsumer<CplexServer.SolutionData, Throwable>() {
+                  public void accept(CplexServer.SolutionData sol, Throwable t) {
+                     h.record((System.nanoTime() - due) / 1000);
+                     if ( t != null ) {
+                        errors.incrementAndGet();
+                        return;
+                     }
+                     String s = String.valueOf(sol.status);
+                     synchronized (statuses) {
+                        AtomicLong n = statuses.get(s);
+                        if ( n == null )
+                           statuses.put(s, n = new AtomicLong());
+                        n.incrementAndGet();
+                     }
+                  }
+               });
+         }
+
+         // wait for the stragglers, at most a few seconds
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+         while ( lp.total.get() + mip.total.get() < requests &&
+                 System.nanoTime() < deadline )
+            Thread.sleep(10);
+         double elapsed = (System.nanoTime() - start) / 1e9;
+
+         long done = lp.total.get() + mip.total.get();
+         String json = report(requests, done, late, repeated, elapsed,
+                              errors.get(), statuses, lp, mip, local);
+         System.out.println(json);
+         Writer out = new FileWriter(report);
+         try {
+            out.write(json);
+         }
+         finally {
+            out.close();
+         }
+      }
+      finally {
+         for (CplexServer.Client c : clients)
+            c.close();
+         if ( local != null )
+            local.shutdown();
+      }
+   }
+
+   static String latencies(Histogram h)
+   {
+      return "{\"count\": " + h.total.get() +
+             ", \"p50\": "  + h.percentile(50.0) / 1000.0 +
+             ", \"p90\": "  + h.percentile(90.0) / 1000.0 +
+             ", \"p99\": "  + h.percentile(99.0) / 1000.0 +
+             ", \"p999\": " + h.percentile(99.9) / 1000.0 +
+             ", \"max\": "  + h.max.get() / 1000.0 + "}";
+   }
+
+   // local is null for a remote server
+   String report(long requests, long done, long late, long repeated,
+                 double elapsed, long errors, Map<String, AtomicLong> statuses,
+                 Histogram lp, Histogram mip, CplexServer.Server local)
+   {
+      // merge both classes for the overall percentiles
+      Histogram all = new Histogram();
+      for (int i = 0; i < all.counts.length(); ++i)
+         all.counts.set(i, lp.counts.get(i) + mip.counts.get(i));
+      all.total.set(lp.total.get() + mip.total.get());
+      all.max.set(Math.max(lp.max.get(), mip.max.get()));
+
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\n");
+      sb.append("  \"targetRate\": ").append(rate).append(",\n");
+      sb.append("  \"connections\": ").append(connections).append(",\n");
+      sb.append("  \"modelColumns\": ").append(size).append(",\n");
+      sb.append("  \"mipShare\": ").append(mipShare).append(",\n");
+      sb.append("  \"models\": ").append(models).append(",\n");
+      sb.append("  \"coldShare\": ").append(cold).append(",\n");
+      sb.append("  \"requests\": ").append(requests).append(",\n");
+      sb.append("  \"completed\": ").append(done).append(",\n");
+      sb.append("  \"sentLate\": ").append(late).append(",\n");
+      sb.append("  \"repeatedModels\": ").append(repeated).append(",\n");
+      sb.append("  \"errors\": ").append(errors).append(",\n");
+      sb.append("  \"seconds\": ").append(elapsed).append(",\n");
+      sb.append("  \"throughput\": ").append((done - errors) / elapsed)
+        .append(",\n");
+      sb.append("  \"status\": {");
+      String sep = "";
+      synchronized (statuses) {
+         for (Map.Entry<String, AtomicLong> e : statuses.entrySet()) {
+            sb.append(sep).append('"').append(e.getKey()).append("\": ")
+              .append(e.getValue().get());
+            sep = ", ";
+         }
+      }
+      sb.append("},\n");
+      if ( local != null ) {
+         sb.append("  \"cache\": {\"hits\": ").append(local.cacheHits.get())
+           .append(", \"misses\": ").append(local.cacheMisses.get())
+           .append("},\n");
+      }
+      sb.append("  \"latencyMs\": ").append(latencies(all)).append(",\n");
+      sb.append("  \"lpLatencyMs\": ").append(latencies(lp)).append(",\n");
+      sb.append("  \"mipLatencyMs\": ").append(latencies(mip));
+      if ( local != null ) {
+         sb.append(",\n  \"server\": \"")
+           .append(local.metrics().trim().replace("\n", "; ")).append('"');
+      }
+      sb.append("\n}\n");
+      return sb.toString();
+   }
+
+   static void usage()
+   {
+      System.out.println("usage: CplexLoad [-rate=<r>] [-duration=<s>] "
+                         + "[-connections=<n>] [-mip=<f>] [-size=<n>]");
+      System.out.println("                 [-models=<n>] [-cold=<f>] [-server=<host:port>] "
+                         + "[-threads=<n>] [-report=<file>]");
+   }
+
+   public static void main(String[] args)
+   {
+      CplexLoad load = new CplexLoad();
+      for (String arg : args) {
+         if      ( arg.startsWith("-rate=") )
+            load.rate = Double.parseDouble(arg.substring(6));
+         else if ( arg.startsWith("-duration=") )
+            load.duration = Double.parseDouble(arg.substring(10));
+         else if ( arg.startsWith("-connections=") )
+            load.connections = Integer.parseInt(arg.substring(13));
+         else if ( arg.startsWith("-mip=") )
+            load.mipShare = Double.parseDouble(arg.substring(5));
+         else if ( arg.startsWith("-size=") )
+            load.size = Integer.parseInt(arg.substring(6));
+         else if ( arg.startsWith("-models=") )
+            load.models = Integer.parseInt(arg.substring(8));
+         else if ( arg.startsWith("-cold=") )
+            load.cold = Double.parseDouble(arg.substring(6));
+         else if ( arg.startsWith("-server=") )
+            load.server = arg.substring(8);
+         else if ( arg.startsWith("-threads=") )
+            load.threads = Integer.parseInt(arg.substring(9));
+         else if ( arg.startsWith("-report=") )
+            load.report = arg.substring(8);
+         else {
+            usage();
+            return;
+         }
+      }
+      try {
+         load.run();
+      }
+      catch (Exception e) {
+         System.err.println("terminating due to exception " + e);
+      }
+   }
+}
@@ -0,0 +1,474 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: CplexLog.java
+ * --------------------------------------------------------------------------
+ *
+ * CplexLog.java - Structured events from the CPLEX log stream
+ *
+ * An OutputStream for IloCplex.setOut() that parses the log while it is
+ * written instead of keeping the text.  Lines are collected in a fixed
+ * byte buffer and scanned in place: tokens are offsets into the buffer and
+ * numbers are parsed from the bytes, so no String is created per line.
+ *
+ * Recognized lines:
+ *    node log      "   120    34   -37.5000  5  -37.0000  -37.8333  456  1.35%"
+ *                  including heuristic ("*  10+ ...") and "Cuts: n" lines;
+ *                  each becomes a MIPTelemetry record, so parsed and
+ *                  callback progress end up in the same Sink
+ *    elapsed time  "Elapsed time = 0.05 sec. (12.34 ticks, ...)"; node log
+ *                  lines carry no time of their own and are stamped with
+ *                  the last one seen
+ *    root          "Root relaxation solution time = 0.01 sec. (0.42 ticks)"
+ *                  plus the objective of the first node log line
+ *    cut summary   "Mixed integer rounding cuts applied:  5"
+ *
+ * Everything else is ignored, or copied to an optional tee stream.
+ *
+ * Usage:
+ *    CplexLog.Summary summary = new CplexLog.Summary();
+ *    CplexLog log = new CplexLog(telemetry, summary, null);
+ *    cplex.setOut(log);
+ *    cplex.solve();
+ *    System.out.println(summary);
+ *
+ * The root and the last elapsed time and bound are carried from line to
+ * line; call reset() before every further solve that writes to the same
+ * CplexLog, so that they are not taken from the previous solve.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CplexLog extends OutputStream {
+   // Called on the thread that writes the log, usually a solver thread.
+   interface Listener {
+      void rootRelaxation(double objective, long iterations, double seconds,
+                          double ticks);
+      void cuts(String kind, long applied);
+   }
+
+   // Keeps the root relaxation and the cut summary of the last solve.
+   static class Summary implements Listener {
+      double rootObjective = Double.NaN;
+      long   rootIterations;
+      double rootSeconds;
+      double rootTicks;
+      final Map<String, Long> cuts = new LinkedHashMap<String, Long>();
+
+      public synchronized void rootRelaxation(double objective, long iterations,
+                                              double seconds, double ticks)
+      {
+         rootObjective  = objective;
+         rootIterations = iterations;
+         rootSeconds    = seconds;
+         rootTicks      = ticks;
+      }
+
+      public synchronized void cuts(String kind, long applied)
+      {
+         cuts.put(kind, applied);
+      }
+
+      synchronized void reset()
+      {
+         rootObjective  = Double.NaN;
+         rootIterations = 0;
+         rootSeconds    = 0.0;
+         rootTicks      = 0.0;
+         cuts.clear();
+      }
+
+      public synchronized String toString()
+      {
+         return "root relaxation " + rootObjective + " (" + rootIterations +
+                " iterations, " + rootSeconds + " s, " + rootTicks +
+                " ticks), cuts applied " + cuts;
+      }
+   }
+
+   static final int MAX_LINE   = 512;
+   static final int MAX_TOKENS = 32;
+
+   // Cut classes of the summary, matched without creating Strings.
+   static final String[] CUT_NAMES = {
+      "Clique", "Cover", "Implied bound", "Flow", "Mixed integer rounding",
+      "Flow path", "Zero-half", "Multi commodity flow", "Lift and project",
+      "Gomory fractional", "GUB cover", "Disjunctive", "User", "Lazy",
+      "BQP", "RLT", "Local implied bound"
+   };
+   static final byte[][] CUT_BYTES = new byte[CUT_NAMES.length][];
+   static {
+      for (int k = 0; k < CUT_NAMES.length; ++k)
+         CUT_BYTES[k] = ascii(CUT_NAMES[k]);
+   }
+
+   static final byte[] ELAPSED = ascii("Elapsed time =");
+   static final byte[] ROOT    = ascii("Root relaxation solution time =");
+   static final byte[] CUTS    = ascii("cuts");
+   static final byte[] APPLIED = ascii("applied:");
+
+   static final double[] POW10 = new double[23];
+   static {
+      POW10[0] = 1.0;
+      for (int k = 1; k < POW10.length; ++k)
+         POW10[k] = POW10[k - 1] * 10.0;
+   }
+
+   final MIPTelemetry telemetry;
+   final Listener     listener;
+   final OutputStream tee;
+
+   final byte[] line   = new byte[MAX_LINE];
+   int          length;
+   final int[]  start  = new int[MAX_TOKENS];
+   final int[]  end    = new int[MAX_TOKENS];
+   int          tokens;
+
+   // state carried between lines
+   double time;
+   double bound      = Double.NaN;
+   double rootSeconds = Double.NaN;
+   double rootTicks;
+   boolean rootSeen;
+
+   long   lines, nodeLines;
+
+   // telemetry, listener and tee may each be null.
+   CplexLog(MIPTelemetry telemetry, Listener listener, OutputStream tee)
+   {
+      this.telemetry = telemetry;
+      this.listener  = listener;
+      this.tee       = tee;
+   }
+
+   static byte[] ascii(String s)
+   {
+      byte[] b = new byte[s.length()];
+      for (int k = 0; k < b.length; ++k)
+         b[k] = (byte)s.charAt(k);
+      return b;
+   }
+
+   public synchronized void write(int b) throws IOException
+   {
+      if ( tee != null )
+         tee.write(b);
+      append((byte)b);
+   }
+
+   public synchronized void write(byte[] b, int off, int len) throws IOException
+   {
+      if ( tee != null )
+         tee.write(b, off, len);
+      for (int k = off; k < off + len; ++k)
+         append(b[k]);
+   }
+
+   public synchronized void flush() throws IOException
+   {
+      if ( tee != null )
+         tee.flush();
+   }
+
+   // Forget the state of the previous solve, including a partial line,
+   // and that of the Summary listener if there is one.  The line counters
+   // keep counting.
+   public synchronized void reset()
+   {
+      length      = 0;
+      time        = 0.0;
+      bound       = Double.NaN;
+      rootSeconds = Double.NaN;
+      rootTicks   = 0.0;
+      rootSeen    = false;
+      if ( listener instanceof Summary )
+         ((Summary)listener).reset();
+   }
+
+   public synchronized void close() throws IOException
+   {
+      if ( length > 0 )
+         parse();
+      length = 0;
+      if ( tee != null )
+         tee.close();
+   }
+
+   // Overlong lines are cut; none of the recognized lines is that long.
+   void append(byte b)
+   {
+      if ( b == '\n' ) {
+         parse();
+         length = 0;
+      }
+      else if ( b != '\r' && length < MAX_LINE ) {
+         line[length++] = b;
+      }
+   }
+
+   void tokenize()
+   {
+      tokens = 0;
+      int k = 0;
+      while ( k < length && tokens < MAX_TOKENS ) {
+         while ( k < length && (line[k] == ' ' || line[k] == '\t') )
+            ++k;
+         if ( k == length )
+            break;
+         start[tokens] = k;
+         while ( k < length && line[k] != ' ' && line[k] != '\t' )
+            ++k;
+         end[tokens++] = k;
+      }
+   }
+
+   boolean tokenIs(int t, byte[] word)
+   {
+      if ( end[t] - start[t] != word.length )
+         return false;
+      for (int k = 0; k < word.length; ++k)
+         if ( line[start[t] + k] != word[k] )
+            return false;
+      return true;
+   }
+
+   boolean lineStartsWith(byte[] prefix)
+   {
+      int k = 0;
+      while ( k < length && line[k] == ' ' )
+         ++k;
+      if ( length - k < prefix.length )
+         return false;
+      for (int p = 0; p < prefix.length; ++p)
+         if ( line[k + p] != prefix[p] )
+            return false;
+      return true;
+   }
+
+   void parse()
+   {
+      ++lines;
+      tokenize();
+      if ( tokens == 0 )
+         return;
+
+      if ( lineStartsWith(ELAPSED) ) {
+         // Elapsed time = 0.05 sec. (12.34 ticks, ...)
+         if ( tokens > 3 ) {
+            double t = number(start[3], end[3]);
+            if ( t == t )
+               time = t;
+         }
+      }
+      else if ( lineStartsWith(ROOT) ) {
+         // Root relaxation solution time = 0.01 sec. (0.42 ticks)
+         if ( tokens > 7 ) {
+            rootSeconds = number(start[5], end[5]);
+            rootTicks   = number(start[7], end[7]);
+            if ( rootSeconds == rootSeconds )
+               time = Math.max(time, rootSeconds);
+         }
+      }
+      else if ( tokens >= 4 && tokenIs(tokens - 2, APPLIED) &&
+                tokenIs(tokens - 3, CUTS) ) {
+         // <kind> cuts applied:  <n>
+         double n = number(start[tokens - 1], end[tokens - 1]);
+         if ( listener != null && n == n )
+            listener.cuts(cutName(start[0], end[tokens - 4]), (long)n);
+      }
+      else {
+         nodeLine();
+      }
+   }
+
+   String cutName(int from, int to)
+   {
+      for (int k = 0; k < CUT_BYTES.length; ++k) {
+         byte[] name = CUT_BYTES[k];
+         if ( name.length != to - from )
+            continue;
+         int p = 0;
+         while ( p < name.length && line[from + p] == name[p] )
+            ++p;
+         if ( p == name.length )
+            return CUT_NAMES[k];
+      }
+      // a cut class this table does not know yet; rare enough to allocate
+      char[] c = new char[to - from];
+      for (int k = 0; k < c.length; ++k)
+         c[k] = (char)(line[from + k] & 0xff);
+      return new String(c);
+   }
+
+   // Node log lines, right to left:
+   //    [*] node[+] left [objective|status] [iinf] [incumbent] bound|label itcnt [gap%]
+   // Lines with node+ are heuristic solutions and only have incumbent,
+   // bound and gap.  "Cuts: 12" (or another label) in the bound column means
+   // the bound did not change.
+   void nodeLine()
+   {
+      int t = 0;
+      if ( end[0] - start[0] == 1 && (line[start[0]] == '*' ||
+                                      line[start[0]] == 'H') )
+         t = 1;
+      if ( tokens - t < 3 )
+         return;
+      int nodeEnd = end[t];
+      boolean plus = line[nodeEnd - 1] == '+';
+      if ( plus )
+         --nodeEnd;
+      long node = integer(start[t], nodeEnd);
+      long left = integer(start[t + 1], end[t + 1]);
+      if ( node < 0 || left < 0 )
+         return;
+
+      int first = t + 2;          // first token of the tail
+      int last  = tokens - 1;     // last token of the tail
+      double gap = Double.POSITIVE_INFINITY;
+      if ( line[end[last] - 1] == '%' ) {
+         gap = number(start[last], end[last] - 1) / 100.0;
+         --last;
+      }
+      boolean feasible = gap != Double.POSITIVE_INFINITY;
+
+      double objective  = Double.NaN;
+      double incumbent  = Double.NaN;
+      long   iterations = -1;
+      if ( plus ) {
+         // incumbent [bound]
+         if ( last >= first )
+            incumbent = number(start[first], end[first]);
+         if ( last > first ) {
+            double b = number(start[last], end[last]);
+            if ( b == b )
+               bound = b;
+         }
+      }
+      else {
+         if ( last < first + 1 )
+            return;
+         iterations = integer(start[last], end[last]);
+         if ( iterations < 0 )
+            return;
+         --last;
+         // bound, or a label like "Cuts: 12" / "Impl Bds: 3"
+         int label = -1;
+         for (int k = first; k < last; ++k) {
+            if ( line[end[k] - 1] == ':' ) {
+               label = k;
+               while ( label > first &&
+                       !isNumber(start[label - 1], end[label - 1]) )
+                  --label;
+               break;
+            }
+         }
+         int boundAt;
+         if ( label >= 0 ) {
+            boundAt = label;
+         }
+         else {
+            double b = number(start[last], end[last]);
+            if ( b != b )
+               return;
+            bound   = b;
+            boundAt = last;
+         }
+         if ( feasible && boundAt - 1 > first )
+            incumbent = number(start[boundAt - 1], end[boundAt - 1]);
+         objective = number(start[first], end[first]);   // NaN for cutoff etc.
+      }
+      ++nodeLines;
+
+      if ( !rootSeen && !plus && node == 0 ) {
+         rootSeen = true;
+         if ( listener != null )
+            listener.rootRelaxation(objective, iterations,
+                                    rootSeconds, rootTicks);
+      }
+      if ( telemetry != null )
+         telemetry.record(time, node, left, bound, incumbent, gap);
+   }
+
+   boolean isNumber(int from, int to)
+   {
+      double v = number(from, to);
+      return v == v;
+   }
+
+   // Non-negative decimal integer, or -1.
+   long integer(int from, int to)
+   {
+      if ( from >= to )
+         return -1;
+      long v = 0;
+      for (int k = from; k < to; ++k) {
+         int d = line[k] - '0';
+         if ( d < 0 || d > 9 )
+            return -1;
+         v = 10 * v + d;
+      }
+      return v;
+   }
+
+   // Decimal number as CPLEX prints it ([-]ddd.ddd[e[+-]dd]), with an
+   // optional leading '('; NaN for anything else.
+   double number(int from, int to)
+   {
+      int k = from;
+      if ( k < to && line[k] == '(' )
+         ++k;
+      boolean negative = false;
+      if ( k < to && (line[k] == '-' || line[k] == '+') )
+         negative = line[k++] == '-';
+      long    mantissa = 0;
+      int     scale    = 0;      // decimal exponent of mantissa
+      int     digits   = 0;
+      boolean point    = false;
+      for (; k < to; ++k) {
+         byte c = line[k];
+         if ( c >= '0' && c <= '9' ) {
+            if ( mantissa < 100000000000000000L )
+               mantissa = 10 * mantissa + (c - '0');
+            else if ( !point )
+               ++scale;
+            else
+               continue;
+            if ( point )
+               --scale;
+            ++digits;
+         }
+         else if ( c == '.' && !point ) {
+            point = true;
+         }
+         else {
+            break;
+         }
+      }
+      if ( digits == 0 )
+         return Double.NaN;
+      if ( k < to && (line[k] == 'e' || line[k] == 'E') ) {
+         ++k;
+         boolean eneg = false;
+         if ( k < to && (line[k] == '-' || line[k] == '+') )
+            eneg = line[k++] == '-';
+         int e = 0;
+         int ed = 0;
+         for (; k < to && line[k] >= '0' && line[k] <= '9'; ++k, ++ed)
+            e = Math.min(10 * e + (line[k] - '0'), 1000);
+         if ( ed == 0 )
+            return Double.NaN;
+         scale += eneg ? -e : e;
+      }
+      // trailing characters other than those of "sec." etc. make it no number
+      if ( k < to && line[k] != ',' && line[k] != ')' )
+         return Double.NaN;
+      double v = mantissa;
+      if ( scale < 0 )
+         v = -scale < POW10.length ? v / POW10[-scale] : v / Math.pow(10, -scale);
+      else if ( scale > 0 )
+         v = scale < POW10.length ? v * POW10[scale] : v * Math.pow(10, scale);
+      return negative ? -v : v;
+   }
+}
@@ -0,0 +1,384 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: CplexPool.java
+ * --------------------------------------------------------------------------
+ *
+ * CplexPool.java - Pool of reusable IloCplex objects
+ *
+ * Creating an IloCplex sets up a native environment and initializes all
+ * parameters; for small models that costs more than the solve.  The pool
+ * hands out IloCplex objects wrapped in a Lease and takes them back when
+ * the lease is closed:
+ *
+ *    try (CplexPool.Lease lease = pool.borrow()) {
+ *       IloCplex cplex = lease.cplex();
+ *       ...
+ *    }
+ *
+ * Borrowers are isolated from each other: a returned object is emptied
+ * with clearModel() and clearCallbacks(), all parameters go back to their
+ * defaults with setDefaults(), and then the pool's own Setup (threads,
+ * output streams, ...) is applied again.  An object that fails to reset is
+ * ended instead of reused.
+ *
+ * Idle objects are ended once they have not been used for a while or when
+ * more than maxIdle of them are waiting.  A lease held for longer than
+ * leakNanos is reported once on System.err as a likely leak.
+ *
+ * The pool only keeps a phantom reference to each lease.  A lease that
+ * becomes unreachable without having been closed is queued by the garbage
+ * collector, and the next borrow() or close() of any lease ends its
+ * IloCplex, so that the native memory of a lost lease is not lost with it.
+ * A borrower must therefore keep the Lease reachable for as long as it
+ * uses lease.cplex(); try-with-resources, or keeping the lease in a field
+ * next to the IloCplex, does that.
+ *
+ * Running this class benchmarks create-and-solve of a small LP with and
+ * without the pool:
+ *     java CplexPool [solves]
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class CplexPool implements Closeable {
+   // applied to every IloCplex after creation and after every reset
+   interface Setup {
+      void apply(IloCplex cplex) throws IloException;
+   }
+
+   // An IloCplex on loan; close() gives it back to the pool.
+   static class Lease implements AutoCloseable {
+      final CplexPool       pool;
+      IloCplex              cplex;
+      Loan                  loan;
+
+      Lease(CplexPool pool, IloCplex cplex)
+      {
+         this.pool  = pool;
+         this.cplex = cplex;
+      }
+
+      IloCplex cplex()
+      {
+         if ( cplex == null )
+            throw new IllegalStateException("lease already closed");
+         return cplex;
+      }
+
+      public void close()
+      {
+         if ( cplex != null ) {
+            pool.giveBack(this);
+            cplex = null;
+         }
+      }
+   }
+
+   // What the pool knows about a lease, without keeping the lease itself
+   // reachable.
+   static class Loan extends PhantomReference<Lease> {
+      final IloCplex  cplex;
+      final long      since = System.nanoTime();
+      final Throwable borrowedAt;   // null unless traceLeaks
+      boolean         reported;     // as held too long
+
+      Loan(Lease lease, ReferenceQueue<Lease> queue, boolean traceLeaks)
+      {
+         super(lease, queue);
+         cplex      = lease.cplex;
+         borrowedAt = traceLeaks ? new Throwable("borrowed here") : null;
+      }
+   }
+
+   static class Idle {
+      final IloCplex cplex;
+      final long     since;
+
+      Idle(IloCplex cplex, long since)
+      {
+         this.cplex = cplex;
+         this.since = since;
+      }
+   }
+
+   final int    maxIdle;
+   final long   idleNanos;
+   final Setup  setup;
+
+   // most recently returned first
+   final ArrayDeque<Idle> idle = new ArrayDeque<Idle>();
+   // open leases, oldest first
+   final Set<Loan> leased = new LinkedHashSet<Loan>();
+   // leases that became unreachable, closed or not
+   final ReferenceQueue<Lease> lost = new ReferenceQueue<Lease>();
+   boolean closed;
+
+   // a lease held longer than this is reported; set before use
+   long    leakNanos  = 10L * 60 * 1000000000L;
+   // remember where leases were borrowed, for the report
+   boolean traceLeaks;
+
+   // statistics
+   long created, reused, evictedIdle, reportedLeaks, evictedLeaked,
+        evictedBroken;
+
+   CplexPool(int maxIdle, long idleMillis, Setup setup)
+   {
+      this.maxIdle   = maxIdle;
+      this.idleNanos = idleMillis * 1000000L;
+      this.setup     = setup;
+   }
+
+   Lease borrow() throws IloException
+   {
+      IloCplex cplex = null;
+      List<IloCplex> ending;
+      synchronized (this) {
+         if ( closed )
+            throw new IllegalStateException("pool closed");
+         ending = sweep();
+         Idle i = idle.pollFirst();
+         if ( i != null ) {
+            cplex = i.cplex;
+            ++reused;
+         }
+      }
+      end(ending);
+      if ( cplex == null ) {
+         cplex = new IloCplex();
+         boolean ready = false;
+         try {
+            if ( setup != null )
+               setup.apply(cplex);
+            ready = true;
+         }
+         finally {
+            // nobody else has it: end it rather than leak it
+            if ( !ready )
+               cplex.end();
+         }
+         synchronized (this) {
+            ++created;
+         }
+      }
+      Lease lease = new Lease(this, cplex);
+      lease.loan = new Loan(lease, lost, traceLeaks);
+      synchronized (this) {
+         leased.add(lease.loan);
+      }
+      return lease;
+   }
+
+   void giveBack(Lease lease)
+   {
+      IloCplex cplex = lease.cplex;
+      synchronized (this) {
+         leased.remove(lease.loan);
+      }
+      lease.loan.clear();
+
+      // reset outside the lock, it talks to the native library
+      boolean reset = false;
+      try {
+         cplex.clearModel();
+         cplex.clearCallbacks();
+         cplex.setDefaults();
+         if ( setup != null )
+            setup.apply(cplex);
+         reset = true;
+      }
+      catch (IloException e) {
+         // state unknown, do not hand it out again
+      }
+
+      boolean keep;
+      List<IloCplex> ending;
+      synchronized (this) {
+         if ( !reset )
+            ++evictedBroken;
+         keep = reset && !closed;
+         if ( keep )
+            idle.addFirst(new Idle(cplex, System.nanoTime()));
+         ending = sweep();
+      }
+      if ( !keep )
+         cplex.end();
+      end(ending);
+   }
+
+   // Take out idle objects that waited too long or are too many and the
+   // objects of leases dropped without close(), to be ended by the caller
+   // once it has let go of the lock, and report leases held too long.
+   // Called with the lock.
+   List<IloCplex> sweep()
+   {
+      long now = System.nanoTime();
+      List<IloCplex> ending = null;
+      Idle oldest;
+      while ( (oldest = idle.peekLast()) != null &&
+              (idle.size() > maxIdle || now - oldest.since > idleNanos) ) {
+         idle.pollLast();
+         if ( ending == null )
+            ending = new ArrayList<IloCplex>();
+         ending.add(oldest.cplex);
+         ++evictedIdle;
+      }
+
+      Reference<? extends Lease> ref;
+      while ( (ref = lost.poll()) != null ) {
+         Loan loan = (Loan)ref;
+         if ( !leased.remove(loan) )
+            continue;   // closed in the meantime
+         if ( ending == null )
+            ending = new ArrayList<IloCplex>();
+         ending.add(loan.cplex);
+         ++evictedLeaked;
+         System.err.println("CplexPool: lease dropped without close() after "
+                            + (now - loan.since) / 1000000L
+                            + " ms, IloCplex ended");
+         if ( loan.borrowedAt != null )
+            loan.borrowedAt.printStackTrace();
+      }
+
+      for (Loan loan : leased) {
+         if ( now - loan.since <= leakNanos )
+            break;
+         if ( !loan.reported ) {
+            loan.reported = true;
+            ++reportedLeaks;
+            System.err.println("CplexPool: lease held for "
+                               + (now - loan.since) / 1000000L
+                               + " ms, not closed?");
+            if ( loan.borrowedAt != null )
+               loan.borrowedAt.printStackTrace();
+         }
+      }
+      return ending;
+   }
+
+   static void end(List<IloCplex> ending)
+   {
+      if ( ending != null )
+         for (IloCplex cplex : ending)
+            cplex.end();
+   }
+
+   synchronized int idleCount()
+   {
+      return idle.size();
+   }
+
+   synchronized int leasedCount()
+   {
+      return leased.size();
+   }
+
+   public synchronized String toString()
+   {
+      return "created " + created + ", reused " + reused +
+             ", idle " + idle.size() + ", leased " + leased.size() +
+             ", evicted idle " + evictedIdle +
+             ", held too long " + reportedLeaks +
+             ", dropped " + evictedLeaked +
+             ", broken " + evictedBroken;
+   }
+
+   // End all idle objects.  Objects still on loan are ended when their
+   // lease is closed.
+   public void close()
+   {
+      ArrayDeque<Idle> ending;
+      synchronized (this) {
+         closed = true;
+         ending = new ArrayDeque<Idle>(idle);
+         idle.clear();
+      }
+      for (Idle i : ending)
+         i.cplex.end();
+   }
+
+
+   // The LP of LPex1:
+   //
+   //    Maximize
+   //     x1 + 2 x2 + 3 x3
+   //    Subject To
+   //     - x1 + x2 + x3 <= 20
+   //     x1 - 3 x2 + x3 <= 30
+   //    Bounds
+   //     0 <= x1 <= 40
+   //    End
+   static double solveSmall(IloCplex cplex) throws IloException
+   {
+      double[]    lb = {0.0, 0.0, 0.0};
+      double[]    ub = {40.0, Double.MAX_VALUE, Double.MAX_VALUE};
+      IloNumVar[] x  = cplex.numVarArray(3, lb, ub);
+      double[] objvals = {1.0, 2.0, 3.0};
+      cplex.addMaximize(cplex.scalProd(x, objvals));
+      cplex.addLe(cplex.sum(cplex.prod(-1.0, x[0]),
+                            cplex.prod( 1.0, x[1]),
+                            cplex.prod( 1.0, x[2])), 20.0);
+      cplex.addLe(cplex.sum(cplex.prod( 1.0, x[0]),
+                            cplex.prod(-3.0, x[1]),
+                            cplex.prod( 1.0, x[2])), 30.0);
+      cplex.solve();
+      return cplex.getObjValue();
+   }
+
+   public static void main(String[] args)
+   {
+      int solves = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+      Setup quiet = new Setup() {
+         public void apply(IloCplex cplex) throws IloException {
+            cplex.setOut(null);
+            cplex.setParam(IloCplex.Param.Threads, 1);
+         }
+      };
+
+      try {
+         // warm up class loading and the native library
+         IloCplex first = new IloCplex();
+         quiet.apply(first);
+         solveSmall(first);
+         first.end();
+
+         long t0 = System.nanoTime();
+         for (int s = 0; s < solves; ++s) {
+            IloCplex cplex = new IloCplex();
+            quiet.apply(cplex);
+            solveSmall(cplex);
+            cplex.end();
+         }
+         long t1 = System.nanoTime();
+
+         CplexPool pool = new CplexPool(4, 60000, quiet);
+         for (int s = 0; s < solves; ++s) {
+            try (Lease lease = pool.borrow()) {
+               solveSmall(lease.cplex());
+            }
+         }
+         long t2 = System.nanoTime();
+         System.out.println("Pool: " + pool);
+         pool.close();
+
+         System.out.println(solves + " solves of a 3x2 LP");
+         System.out.printf("new IloCplex + end  %8.1f us/solve%n",
+                           (t1 - t0) / 1e3 / solves);
+         System.out.printf("pooled IloCplex     %8.1f us/solve%n",
+                           (t2 - t1) / 1e3 / solves);
+      }
+      catch (IloException e) {
+         System.err.println("Concert exception '" + e + "' caught");
+      }
+   }
+}
@@ -13,49 +13,190 @@ package examples;
  * --------------------------------------------------------------------------
  *
  * CplexServer.java - Entering a problem using IloCplexModeler and
- *                    transferring it to another thread for solving
+ *                    transferring it to a concurrent solve service
+ *
+ * The server accepts any number of client connections on a single NIO
+ * selector thread.  Every request frame carries a request id; the solve
+ * jobs run on a fixed pool of solver threads sized by
+ * cores / Param.Threads, and the responses are written back as soon as
+ * they are ready, so they may come back out of order.
+ *
+ * Frame layout (all integers big endian):
+ *    int   length of the rest of the frame
+ *    long  request id
+ *    byte  message type
+ *    byte  request flags (STREAM, STREAM_VALUES)
+ *    ...   payload
+ *
+ * A length shorter than the header or longer than Server.maxFrame closes
+ * the connection, as does any other frame the server cannot make sense of;
+ * the other clients are not affected.
+ *
+ * MODEL and DELTA payloads start with the request options:
+ *    byte   priority class (INTERACTIVE or BATCH)
+ *    double time limit in seconds from arrival at the server, 0 for none
+ *
+ * Models and solutions travel in the compact columnar format of ModelWire
+ * rather than as serialized Concert objects.
+ *
+ * Solved models stay loaded in a server-side cache of live IloCplex
+ * objects, keyed by model fingerprint and bounded by estimated memory
+ * (least recently used models are evicted first).  Every solution carries
+ * the fingerprint of the solved model; a client can send a DELTA against
+ * that fingerprint to change bounds or objective coefficients or to add
+ * rows, and the cached model is re-solved in place from its previous
+ * basis or incumbent.  The result carries the fingerprint of the changed
+ * model, which further deltas can build on.  A delta can also be sent
+ * again against the same base: the server takes the previous delta back
+ * first, so one model can be re-solved many times with different bounds.
+ *
+ * A request sent with the STREAM flag gets PROGRESS messages while the MIP
+ * is being solved: new incumbent objective, best bound, gap and node count,
+ * pushed from a generic callback at Context.Id.GlobalProgress.  With
+ * STREAM_VALUES the incumbent vector is sent as well, delta-encoded against
+ * the previous one.  The final SOLUTION message ends the stream.
+ *
+ * Admission control: every priority class has a bounded queue.  When the
+ * queue of a request's class is full the server stops reading from that
+ * connection until a slot frees up, so TCP flow control pushes back on the
+ * client.  Interactive requests are taken before batch ones.  A request's
+ * time limit counts from its arrival; what is left after queueing becomes
+ * Param.TimeLimit, and a request that used it all up in the queue is
+ * answered with an error.  A CANCEL message removes a queued request or
+ * stops a running solve through an IloCplex.Aborter.  Server.metrics()
+ * reports queue depth and wait times per class.
+ *
+ * Clients on the same host can avoid copying large models through the
+ * socket: after SHM_ATTACH names a file mapped by both sides (see
+ * SharedMemory), an SHM_MODEL request carries only the offset, length and
+ * capacity of a region holding the encoded model.  The server decodes it
+ * from the mapping, writes the solution into the same region and answers
+ * with SHM_SOLUTION and the solution length.  The server maps only plain
+ * file names inside its own Server.shmDirectory, so a client cannot make
+ * it write to other files, and regions must lie inside the mapping.
+ * Without a shmDirectory SHM_ATTACH is refused.
+ *
+ * Many small models can travel in one MODELS request.  They are solved one
+ * after the other on a single IloCplex that is emptied with clearModel()
+ * between models, instead of being cached, and all results come back in a
+ * single SOLUTIONS response.
+ *
+ * Every IloCplex of the server, cached or used for a batch, is borrowed
+ * from a CplexPool and given back (reset) when the model is evicted or the
+ * batch is done, so the native environment is set up only a few times.
+ *
+ * To run this example:
+ *     java CplexServer [threadsPerSolve] [requests] [mipfile]
+ * threadsPerSolve 0 gives every solve all cores and runs one at a time.
  */
 
 import ilog.concert.*;
 import ilog.cplex.*;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class CplexServer {
 
-   // define class to transfer model to server
+   // message types
+   static final byte MODEL    = 1;   // request:  ModelWire
+   static final byte SOLUTION = 2;   // response: ModelWire solution
+   static final byte ERROR    = 3;   // response: UTF-8 error message
+   static final byte DELTA    = 4;   // request:  fingerprint + ModelWire.Delta
+   static final byte PROGRESS = 5;   // response: Progress, zero or more before SOLUTION
+   static final byte CANCEL   = 6;   // request:  cancel the request with this id
+   static final byte SHM_ATTACH   = 7;   // request:  UTF-8 name of a SharedMemory file
+   static final byte SHM_MODEL    = 8;   // request:  offset, length, capacity of a region
+   static final byte SHM_SOLUTION = 9;   // response: solution length in that region
+   static final byte MODELS       = 10;  // request:  several ModelWire payloads
+   static final byte SOLUTIONS    = 11;  // response: one result per model
+
+   // request flags
+   static final byte STREAM        = 1;   // send PROGRESS messages
+   static final byte STREAM_VALUES = 2;   // include incumbent values in them
+
+   // priority classes
+   static final byte INTERACTIVE = 0;
+   static final byte BATCH       = 1;
+   static final String[] PRIORITY_NAMES = {"interactive", "batch"};
+
+   // size of the request options at the start of MODEL and DELTA payloads
+   static final int OPTIONS = 1 + 8;
+
+   // size of the frame header after the length field: request id + type +
+   // flags
+   static final int HEADER = 8 + 1 + 1;
+
+   // default limit on the length of a request frame
+   static final int MAX_FRAME = 64 << 20;
+
+   // Concert model and its variables as built by the client; converted to
+   // ModelWire before it is sent
    static class ModelData implements Serializable {
       private static final long serialVersionUID = 1021L;
       IloModel    model;
       IloNumVar[] vars;
       ModelData(IloModel m, IloNumVar[] v)
       {
-         model = m; 
+         model = m;
          vars  = v;
       }
    }
 
    // define class to transfer back solution
-   static class SolutionData implements Serializable {
-      private static final long serialVersionUID = 1022L;
+   static class SolutionData {
+      long                 model;    // fingerprint of the solved model
       IloCplex.CplexStatus status;
       double               obj;
       double[]             vals;
+      String               error;    // why this model of a batch failed
+   }
+
+   // Intermediate progress of a MIP solve.  vals is the full incumbent
+   // vector (rebuilt by the client from the delta encoding), or null if the
+   // request did not ask for values.
+   static class Progress {
+      double   incumbent;   // NaN while there is no incumbent
+      double   bound;
+      double   gap;
+      long     nodes;
+      double[] vals;
+   }
+
+   interface ProgressListener {
+      void progress(long id, Progress p);
    }
 
    public static void main(String[] args)
    {
+      int threadsPerSolve, requests;
       try {
-         // setup pipe to transfer model to server
-         PipedOutputStream mout = new PipedOutputStream();
-         PipedInputStream  min  = new PipedInputStream(mout);
-
-         // setup pipe to transfer results back
-         PipedOutputStream sout = new PipedOutputStream();
-         PipedInputStream  sin  = new PipedInputStream(sout);
-
-         // start server
-         new Server(min, sout).start();
+         threadsPerSolve = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+         requests        = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+      }
+      catch (NumberFormatException e) {
+         System.err.println("Usage: CplexServer [threadsPerSolve] [requests] [mipfile]");
+         System.exit(-1);
+         return;
+      }
+      Server server = null;
+      try {
+         // start server on an ephemeral localhost port
+         server = new Server(new InetSocketAddress("localhost", 0),
+                             threadsPerSolve);
+         server.start();
 
          // build model
          IloNumVar[][] var = new IloNumVar[1][];
@@ -64,24 +205,99 @@ public class CplexServer {
          IloCplexModeler model = new IloCplexModeler();
          populateByRow(model, var, rng);
 
-         ObjectOutputStream os = new ObjectOutputStream(mout);
-         os.writeObject(new ModelData(model, var[0]));
+         // submit several solves at once, the responses are matched by
+         // request id
+         Client client = new Client(server.getAddress());
+         ModelWire wire = ModelWire.fromModel(model, var[0], true);
+         List<Future<SolutionData>> futures =
+            new ArrayList<Future<SolutionData>>();
+         for (int r = 0; r < requests; ++r)
+            futures.add(client.submit(wire));
 
-         ObjectInputStream  is = new ObjectInputStream(sin);
-         SolutionData sol = (SolutionData)is.readObject();
+         for (int r = 0; r < requests; ++r) {
+            SolutionData sol = futures.get(r).get();
 
-         System.out.println("Solution status = " + sol.status);
+            System.out.println("Request " + r + ": Solution status = "
+                               + sol.status);
 
-         if ( sol.status.equals(IloCplex.CplexStatus.Optimal) ) {
+            if ( sol.status.equals(IloCplex.CplexStatus.Optimal) ) {
+               System.out.println("Solution value = " + sol.obj);
+               int nvars = var[0].length;
+               for (int j = 0; j < nvars; ++j)
+                  System.out.println("Variable " + j + ": Value = " + sol.vals[j]);
+            }
+         }
+
+         // change the objective coefficient of x1 and re-solve the cached
+         // model instead of sending it again
+         ModelWire.Delta delta = new ModelWire.Delta();
+         delta.objCols = new int[]    {0};
+         delta.newObj  = new double[] {5.0};
+         long base = futures.get(0).get().model;
+         SolutionData sol = client.submit(base, delta).get();
+         System.out.println("After delta: Solution status = " + sol.status);
+         if ( sol.status.equals(IloCplex.CplexStatus.Optimal) )
+            System.out.println("Solution value = " + sol.obj);
+
+         // another delta against the same base replaces the first one
+         delta.newObj = new double[] {6.0};
+         sol = client.submit(base, delta).get();
+         System.out.println("After second delta: Solution status = " + sol.status);
+         if ( sol.status.equals(IloCplex.CplexStatus.Optimal) )
+            System.out.println("Solution value = " + sol.obj);
+
+         // optionally solve a MIP read from a file and print its progress
+         // as the server streams it
+         if ( args.length > 2 ) {
+            IloCplex reader = new IloCplex();
+            reader.importModel(args[2]);
+            IloLPMatrix lp = (IloLPMatrix)reader.LPMatrixIterator().next();
+            IloCplexModeler rows = new IloCplexModeler();
+            rows.add(lp.getRanges());
+            rows.add(reader.getObjective());
+            ModelWire mip = ModelWire.fromModel(rows, lp.getNumVars(), false);
+            reader.end();
+
+            sol = client.submit(mip, new ProgressListener() {
+                  public void progress(long id, Progress p) {
+                     System.out.println("Progress: nodes = " + p.nodes +
+                                        ", incumbent = " + p.incumbent +
+                                        ", bound = " + p.bound +
+                                        ", gap = " + p.gap);
+                  }
+               }, false).get();
+            System.out.println(args[2] + ": Solution status = " + sol.status);
             System.out.println("Solution value = " + sol.obj);
-            int nvars = var[0].length;
-            for (int j = 0; j < nvars; ++j)
-               System.out.println("Variable " + j + ": Value = " + sol.vals[j]);
          }
 
-         // signal that we're done
-         os.writeObject(new ModelData(null, null));
-         is.close();
+         // per-model overhead of many tiny models: one request each
+         // against a single batch request
+         ModelWire[] variants = new ModelWire[requests];
+         for (int r = 0; r < requests; ++r) {
+            variants[r] = ModelWire.fromModel(model, var[0], false);
+            variants[r].obj[0] += r + 1;   // distinct models, no cache hits
+         }
+         long t0 = System.nanoTime();
+         futures.clear();
+         for (int r = 0; r < requests; ++r)
+            futures.add(client.submit(variants[r]));
+         for (Future<SolutionData> f : futures)
+            f.get();
+         long t1 = System.nanoTime();
+         for (int r = 0; r < requests; ++r)
+            variants[r].obj[0] += requests;
+         SolutionData[] sols =
+            client.submitBatch(variants, new Client.Options()).get();
+         long t2 = System.nanoTime();
+         System.out.println("Batch of " + sols.length + ": last status = "
+                            + sols[sols.length - 1].status);
+         System.out.printf("Per model: %.3f ms as single requests, "
+                           + "%.3f ms in one batch%n",
+                           (t1 - t0) / 1e6 / requests,
+                           (t2 - t1) / 1e6 / requests);
+
+         client.close();
+         System.out.print(server.metrics());
       }
       catch (IloException e) {
          System.err.println("Concert exception '" + e + "' caught");
@@ -89,6 +305,11 @@ public class CplexServer {
       catch (Throwable t) {
          System.err.println("terminating due to exception " + t);
       }
+      finally {
+         // signal that we're done
+         if ( server != null )
+            server.shutdown();
+      }
    }
 
 
@@ -129,46 +350,1475 @@ public class CplexServer {
    }
 
 
+   // Frame helpers shared by server and client
+
+   // Allocate a direct buffer for a frame with payloadSize bytes of
+   // payload and write the header; the caller appends the payload and
+   // flips the buffer.
+   static ByteBuffer frame(long id, byte type, int payloadSize)
+   {
+      return frame(id, type, (byte)0, payloadSize);
+   }
+
+   static ByteBuffer frame(long id, byte type, byte flags, int payloadSize)
+   {
+      ByteBuffer buf = ByteBuffer.allocateDirect(4 + HEADER + payloadSize);
+      buf.putInt(HEADER + payloadSize);
+      buf.putLong(id);
+      buf.put(type);
+      buf.put(flags);
+      return buf;
+   }
+
+   static ByteBuffer modelFrame(long id, byte flags, byte priority,
+                                double timeLimit, ModelWire model)
+   {
+      ByteBuffer buf = frame(id, MODEL, flags, OPTIONS + model.encodedSize());
+      buf.put(priority).putDouble(timeLimit);
+      model.encode(buf);
+      buf.flip();
+      return buf;
+   }
+
+   static ByteBuffer deltaFrame(long id, byte flags, byte priority,
+                                double timeLimit, long model,
+                                ModelWire.Delta delta)
+   {
+      ByteBuffer buf = frame(id, DELTA, flags,
+                             OPTIONS + 8 + delta.encodedSize());
+      buf.put(priority).putDouble(timeLimit);
+      buf.putLong(model);
+      delta.encode(buf);
+      buf.flip();
+      return buf;
+   }
+
+   static ByteBuffer solutionFrame(long id, SolutionData sol)
+   {
+      ByteBuffer buf = frame(id, SOLUTION, ModelWire.solutionSize(sol));
+      ModelWire.encodeSolution(sol, buf);
+      buf.flip();
+      return buf;
+   }
+
+   // Progress payload (little endian): incumbent, bound, gap, nodes, then
+   // the number of changed values followed by their indices and values.
+   static ByteBuffer progressFrame(long id, Progress p, int nchanged,
+                                   int[] changedIdx, double[] changedVal)
+   {
+      ByteBuffer buf = frame(id, PROGRESS, 8 * 4 + 4 + 12 * nchanged);
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+      buf.putDouble(p.incumbent).putDouble(p.bound).putDouble(p.gap);
+      buf.putLong(p.nodes);
+      buf.putInt(nchanged);
+      ModelWire.putInts(buf, changedIdx, nchanged);
+      ModelWire.putDoubles(buf, changedVal, nchanged);
+      buf.flip();
+      return buf;
+   }
+
+   // Decode a progress payload, applying the changed values to vals (which
+   // holds the previous incumbent vector or null).
+   static Progress decodeProgress(ByteBuffer src, double[] vals)
+   {
+      src.order(ByteOrder.LITTLE_ENDIAN);
+      Progress p = new Progress();
+      p.incumbent = src.getDouble();
+      p.bound     = src.getDouble();
+      p.gap       = src.getDouble();
+      p.nodes     = src.getLong();
+      int n = src.getInt();
+      int[]    idx = new int[n];
+      double[] val = new double[n];
+      ModelWire.getInts(src, idx);
+      ModelWire.getDoubles(src, val);
+      for (int k = 0; k < n; ++k)
+         vals[idx[k]] = val[k];
+      p.vals = vals;
+      return p;
+   }
+
+   static ByteBuffer shmModelFrame(long id, byte flags, byte priority,
+                                   double timeLimit, int offset, int length,
+                                   int capacity)
+   {
+      ByteBuffer buf = frame(id, SHM_MODEL, flags, OPTIONS + 4 + 4 + 4);
+      buf.put(priority).putDouble(timeLimit);
+      buf.putInt(offset).putInt(length).putInt(capacity);
+      buf.flip();
+      return buf;
+   }
+
+   static ByteBuffer shmSolutionFrame(long id, int length)
+   {
+      ByteBuffer buf = frame(id, SHM_SOLUTION, 4);
+      buf.putInt(length);
+      buf.flip();
+      return buf;
+   }
+
+   static ByteBuffer attachFrame(long id, String name)
+   {
+      byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer buf = frame(id, SHM_ATTACH, bytes.length);
+      buf.put(bytes);
+      buf.flip();
+      return buf;
+   }
+
+   // Batch payload: number of models, then every model as int length and
+   // ModelWire payload.
+   static ByteBuffer modelsFrame(long id, byte priority, double timeLimit,
+                                 ModelWire[] models)
+   {
+      int size = OPTIONS + 4;
+      for (ModelWire m : models)
+         size += 4 + m.encodedSize();
+      ByteBuffer buf = frame(id, MODELS, size);
+      buf.put(priority).putDouble(timeLimit);
+      buf.putInt(models.length);
+      for (ModelWire m : models) {
+         buf.putInt(m.encodedSize());
+         m.encode(buf);
+      }
+      buf.flip();
+      return buf;
+   }
+
+   // Batch response: number of results, then for every model either byte
+   // 1 and the solution, or byte 0 and the error message.
+   static ByteBuffer solutionsFrame(long id, SolutionData[] sols)
+   {
+      int size = 4;
+      byte[][] errors = new byte[sols.length][];
+      for (int i = 0; i < sols.length; ++i) {
+         if ( sols[i].error == null ) {
+            size += 1 + ModelWire.solutionSize(sols[i]);
+         }
+         else {
+            errors[i] = sols[i].error.getBytes(StandardCharsets.UTF_8);
+            size += 1 + 4 + errors[i].length;
+         }
+      }
+      ByteBuffer buf = frame(id, SOLUTIONS, size);
+      buf.putInt(sols.length);
+      for (int i = 0; i < sols.length; ++i) {
+         if ( errors[i] == null ) {
+            buf.put((byte)1);
+            ModelWire.encodeSolution(sols[i], buf);
+         }
+         else {
+            buf.put((byte)0);
+            buf.putInt(errors[i].length);
+            buf.put(errors[i]);
+         }
+      }
+      buf.flip();
+      return buf;
+   }
+
+   static SolutionData[] decodeSolutions(ByteBuffer src)
+   {
+      SolutionData[] sols = new SolutionData[src.getInt()];
+      for (int i = 0; i < sols.length; ++i) {
+         if ( src.get() == 1 ) {
+            sols[i] = ModelWire.decodeSolution(src);
+         }
+         else {
+            byte[] bytes = new byte[src.getInt()];
+            src.get(bytes);
+            sols[i] = new SolutionData();
+            sols[i].error = new String(bytes, StandardCharsets.UTF_8);
+         }
+      }
+      return sols;
+   }
+
+   static ByteBuffer cancelFrame(long id)
+   {
+      ByteBuffer buf = frame(id, CANCEL, 0);
+      buf.flip();
+      return buf;
+   }
+
+   static ByteBuffer errorFrame(long id, String message)
+   {
+      byte[]     bytes = message.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer buf   = frame(id, ERROR, bytes.length);
+      buf.put(bytes);
+      buf.flip();
+      return buf;
+   }
+
+
+   // One client connection on the server side.  Only the selector thread
+   // reads from or writes to the channel; solver threads hand their
+   // responses over through the pending queue.
+   static class Connection {
+      final SocketChannel     channel;
+      final int               maxFrame;
+      final ByteBuffer        length  = ByteBuffer.allocate(4);
+      ByteBuffer              body;
+      final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<ByteBuffer>();
+      // admitted requests that have not been answered yet, by request id
+      final Map<Long, Job>    jobs    = new ConcurrentHashMap<Long, Job>();
+      // request waiting for room in its queue while reading is paused;
+      // only touched by the selector thread
+      Job                     parked;
+      // ring buffer shared with the client, null until SHM_ATTACH
+      volatile SharedMemory   shm;
+
+      Connection(SocketChannel ch, int maxFrame)
+      {
+         channel       = ch;
+         this.maxFrame = maxFrame;
+      }
+
+      // Read as much as is available; returns a complete frame body
+      // (request id, type, payload) or null if the frame is not complete
+      // yet.  Throws EOFException when the client has closed, and an
+      // IOException for a length prefix shorter than the header or longer
+      // than maxFrame; the stream cannot be resynchronized after that.
+      ByteBuffer read() throws IOException
+      {
+         if ( body == null ) {
+            if ( channel.read(length) < 0 )
+               throw new EOFException();
+            if ( length.hasRemaining() )
+               return null;
+            length.flip();
+            int n = length.getInt();
+            if ( n < HEADER || n > maxFrame )
+               throw new IOException("bad frame length " + n);
+            body = ByteBuffer.allocate(n);
+            length.clear();
+         }
+         if ( channel.read(body) < 0 )
+            throw new EOFException();
+         if ( body.hasRemaining() )
+            return null;
+         ByteBuffer complete = body;
+         body = null;
+         complete.flip();
+         return complete;
+      }
+
+      // Write pending responses; returns true once everything is written.
+      boolean flush() throws IOException
+      {
+         ByteBuffer buf;
+         while ( (buf = pending.peek()) != null ) {
+            channel.write(buf);
+            if ( buf.hasRemaining() )
+               return false;
+            pending.poll();
+         }
+         return true;
+      }
+   }
+
+
+   // What the server needs to know about a request while solving it.
+   static class Request {
+      final Connection conn;
+      final long       id;
+      final byte       flags;
+      final byte       priority;
+      final double     timeLimit;   // seconds from arrival, 0 for none
+      final long       arrival = System.nanoTime();
+      volatile boolean cancelled;
+      // aborter of the running solve, null while queued
+      volatile IloCplex.Aborter aborter;
+
+      Request(Connection conn, long id, byte flags, byte priority,
+              double timeLimit)
+      {
+         this.conn      = conn;
+         this.id        = id;
+         this.flags     = flags;
+         this.priority  = priority;
+         this.timeLimit = timeLimit;
+      }
+
+      // Stop the request; a running solve is aborted and answers with
+      // whatever it has found so far.
+      void cancel()
+      {
+         cancelled = true;
+         IloCplex.Aborter a = aborter;
+         if ( a != null )
+            a.abort();
+      }
+
+      // Time limit left after queueing, Double.POSITIVE_INFINITY if none.
+      double remaining()
+      {
+         if ( timeLimit <= 0.0 )
+            return Double.POSITIVE_INFINITY;
+         return timeLimit - (System.nanoTime() - arrival) * 1e-9;
+      }
+   }
+
+   // Admission counters of one priority class.
+   static class QueueMetrics {
+      final int        capacity;
+      final AtomicLong depth     = new AtomicLong();
+      final AtomicLong admitted  = new AtomicLong();
+      final AtomicLong paused    = new AtomicLong();   // times a full queue paused a connection
+      final AtomicLong cancelled = new AtomicLong();
+      final AtomicLong expired   = new AtomicLong();
+      final AtomicLong started   = new AtomicLong();
+      final AtomicLong waitNanos = new AtomicLong();
+      final AtomicLong maxWait   = new AtomicLong();
+
+      QueueMetrics(int capacity)
+      {
+         this.capacity = capacity;
+      }
+
+      void waited(long nanos)
+      {
+         started.incrementAndGet();
+         waitNanos.addAndGet(nanos);
+         long max;
+         while ( nanos > (max = maxWait.get()) &&
+                 !maxWait.compareAndSet(max, nanos) )
+            ;
+      }
+
+      public String toString()
+      {
+         long n = started.get();
+         return "depth " + depth.get() + "/" + capacity +
+                ", admitted " + admitted.get() +
+                ", paused " + paused.get() +
+                ", cancelled " + cancelled.get() +
+                ", expired " + expired.get() +
+                ", wait avg " + (n == 0 ? 0.0 : waitNanos.get() * 1e-6 / n) +
+                " ms, max " + maxWait.get() * 1e-6 + " ms";
+      }
+   }
+
+   // A queued request.  The solver pool takes jobs by priority class first
+   // and arrival order second.
+   static class Job implements Runnable, Comparable<Job> {
+      final Server     server;
+      final Request    request;
+      final byte       type;
+      final ByteBuffer payload;
+      final long       seq;
+
+      Job(Server server, Request request, byte type, ByteBuffer payload,
+          long seq)
+      {
+         this.server  = server;
+         this.request = request;
+         this.type    = type;
+         this.payload = payload;
+         this.seq     = seq;
+      }
+
+      public int compareTo(Job other)
+      {
+         if ( request.priority != other.request.priority )
+            return request.priority < other.request.priority ? -1 : 1;
+         return Long.compare(seq, other.seq);
+      }
+
+      public void run()
+      {
+         server.started(this);
+         Connection conn = request.conn;
+         long       id   = request.id;
+         try {
+            if ( request.cancelled ) {
+               server.sendError(conn, id, "cancelled");
+               return;
+            }
+            if ( request.remaining() <= 0.0 ) {
+               server.metrics[request.priority].expired.incrementAndGet();
+               server.sendError(conn, id, "time limit of " + request.timeLimit
+                                + "s expired while queued");
+               return;
+            }
+            SolutionData sol;
+            if ( type == MODEL ) {
+               sol = server.solve(ModelWire.decode(payload), request);
+            }
+            else if ( type == MODELS ) {
+               server.send(conn, solutionsFrame(id,
+                                                server.solveBatch(payload,
+                                                                  request)));
+               return;
+            }
+            else if ( type == SHM_MODEL ) {
+               SharedMemory shm = conn.shm;
+               if ( shm == null )
+                  throw new IOException("no shared memory attached");
+               int offset   = payload.getInt();
+               int length   = payload.getInt();
+               int capacity = payload.getInt();
+               if ( !shm.contains(offset, length) ||
+                    !shm.contains(offset, capacity) )
+                  throw new IOException("region " + offset + "+" + length
+                                        + "/" + capacity + " is outside the "
+                                        + shm.capacity + " byte mapping");
+               sol = server.solve(ModelWire.decode(shm.region(offset, length)),
+                                  request);
+               int size = ModelWire.solutionSize(sol);
+               if ( size <= capacity ) {
+                  ModelWire.encodeSolution(sol, shm.region(offset, capacity));
+                  server.send(conn, shmSolutionFrame(id, size));
+                  return;
+               }
+               // does not fit into the region, send it on the socket
+            }
+            else {
+               long base = payload.getLong();
+               sol = server.solveDelta(base, ModelWire.Delta.decode(payload),
+                                       request);
+            }
+            server.send(conn, solutionFrame(id, sol));
+         }
+         catch (Throwable t) {
+            server.sendError(conn, id, t.toString());
+         }
+         finally {
+            conn.jobs.remove(id);
+         }
+      }
+   }
+
+   // Generic callback that pushes PROGRESS messages for one request.  A
+   // message is sent for every new incumbent, and for bound movement at
+   // most every MIN_INTERVAL nanoseconds.
+   static class ProgressStreamer implements IloCplex.Callback.Function {
+      static final long MIN_INTERVAL = 100000000L;
+
+      final Server      server;
+      final Request     request;
+      final IloNumVar[] vars;        // null if values are not streamed
+      double[]          last;        // incumbent values sent last
+      int[]             changedIdx;
+      double[]          changedVal;
+      double            lastIncumbent = Double.NaN;
+      double            lastBound     = Double.NaN;
+      long              lastSent;
+
+      ProgressStreamer(Server server, Request request, IloNumVar[] vars)
+      {
+         this.server  = server;
+         this.request = request;
+         if ( (request.flags & STREAM_VALUES) != 0 ) {
+            this.vars  = vars;
+            last       = new double[vars.length];
+            changedIdx = new int[vars.length];
+            changedVal = new double[vars.length];
+         }
+         else {
+            this.vars = null;
+         }
+      }
+
+      public synchronized void invoke(IloCplex.Callback.Context context)
+         throws IloException
+      {
+         if ( !context.inGlobalProgress() )
+            return;
+
+         boolean feasible =
+            context.getIntInfo(IloCplex.Callback.Context.Info.Feasible) != 0;
+         double incumbent = feasible ? context.getIncumbentObjective()
+                                     : Double.NaN;
+         double bound =
+            context.getDoubleInfo(IloCplex.Callback.Context.Info.BestBound);
+         boolean newIncumbent = feasible && incumbent != lastIncumbent;
+         long now = System.nanoTime();
+         if ( !newIncumbent &&
+              (bound == lastBound || now - lastSent < MIN_INTERVAL) )
+            return;
+
+         Progress p  = new Progress();
+         p.incumbent = incumbent;
+         p.bound     = bound;
+         p.gap       = feasible ? Math.abs(incumbent - bound)
+                                  / (1e-10 + Math.abs(incumbent))
+                                : Double.POSITIVE_INFINITY;
+         p.nodes     =
+            context.getLongInfo(IloCplex.Callback.Context.Info.NodeCount);
+
+         // delta-encode the incumbent against the vector sent last
+         int nchanged = 0;
+         if ( vars != null && newIncumbent ) {
+            double[] x = context.getIncumbent(vars);
+            for (int j = 0; j < x.length; ++j) {
+               if ( x[j] != last[j] ) {
+                  changedIdx[nchanged] = j;
+                  changedVal[nchanged] = x[j];
+                  last[j] = x[j];
+                  ++nchanged;
+               }
+            }
+         }
+
+         server.send(request.conn, progressFrame(request.id, p, nchanged,
+                                                 changedIdx, changedVal));
+         lastIncumbent = incumbent;
+         lastBound     = bound;
+         lastSent      = now;
+      }
+   }
+
+   // A live IloCplex kept by the server together with the columns of the
+   // model loaded into it.
+   static class CachedModel {
+      long        fingerprint;
+      long        checksum;     // ModelWire.checksum() of the same content
+      CplexPool.Lease lease;
+      IloCplex    cplex;
+      IloNumVar[] vars;
+      double[]    obj;      // dense objective, kept up to date by deltas
+      long        bytes;    // estimated memory footprint
+      boolean     solved;   // the last solve found a solution
+      // the model without its last delta and how to take it back; undo is
+      // null for a model loaded in full
+      long        base;
+      long        baseChecksum;
+      ModelWire.Delta.Undo undo;
+
+      // give the IloCplex back to the pool
+      void release()
+      {
+         lease.close();
+      }
+   }
+
+   // Rough memory footprint of a loaded model: Concert objects plus the
+   // native CPLEX copy.
+   static long footprint(int ncols, int nrows, int nnz)
+   {
+      return 200L * (ncols + nrows) + 24L * nnz;
+   }
+
+   // LRU cache of live models bounded by estimated memory.  A model is
+   // taken out of the cache while it is being solved, so no two solver
+   // threads ever use the same IloCplex.
+   static class ModelCache {
+      final long capacity;
+      long       size;
+      boolean    closed;
+      final LinkedHashMap<Long, CachedModel> entries =
+         new LinkedHashMap<Long, CachedModel>(16, 0.75f, true);
+
+      ModelCache(long capacity)
+      {
+         this.capacity = capacity;
+      }
+
+      synchronized CachedModel take(long fingerprint)
+      {
+         CachedModel entry = entries.remove(fingerprint);
+         if ( entry != null )
+            size -= entry.bytes;
+         return entry;
+      }
+
+      // Take a model that is one delta away from base.
+      synchronized CachedModel takeDerived(long base)
+      {
+         for (Iterator<CachedModel> it = entries.values().iterator(); it.hasNext(); ) {
+            CachedModel entry = it.next();
+            if ( entry.undo != null && entry.base == base ) {
+               it.remove();
+               size -= entry.bytes;
+               return entry;
+            }
+         }
+         return null;
+      }
+
+      void put(CachedModel entry)
+      {
+         List<CachedModel> evicted = new ArrayList<CachedModel>();
+         synchronized (this) {
+            if ( closed ) {
+               evicted.add(entry);
+            }
+            else {
+               CachedModel old = entries.put(entry.fingerprint, entry);
+               if ( old != null ) {
+                  // the same model was solved twice concurrently
+                  size -= old.bytes;
+                  evicted.add(old);
+               }
+               size += entry.bytes;
+               Iterator<CachedModel> it = entries.values().iterator();
+               while ( size > capacity && it.hasNext() ) {
+                  CachedModel eldest = it.next();
+                  it.remove();
+                  size -= eldest.bytes;
+                  evicted.add(eldest);
+               }
+            }
+         }
+         for (CachedModel e : evicted)
+            e.release();
+      }
+
+      void close()
+      {
+         List<CachedModel> evicted;
+         synchronized (this) {
+            closed  = true;
+            evicted = new ArrayList<CachedModel>(entries.values());
+            entries.clear();
+            size = 0;
+         }
+         for (CachedModel e : evicted)
+            e.release();
+      }
+   }
+
+
    // The server class
    static class Server extends Thread {
-      PipedInputStream  pin;
-      PipedOutputStream pout;
+      final Selector            selector;
+      final ServerSocketChannel acceptor;
+      final ThreadPoolExecutor  solvers;
+      final int                 threadsPerSolve;
+      final ModelCache          cache;
+      final CplexPool           pool;
+      final QueueMetrics[]      metrics;
+      final AtomicLong          nextSeq  = new AtomicLong();
+      // connections with responses waiting to be written
+      final Queue<Connection>   writable = new ConcurrentLinkedQueue<Connection>();
+      // connections whose reading is paused by a full queue; selector thread
+      // only
+      final List<Connection>    paused   = new ArrayList<Connection>();
+      volatile boolean          resume;
+      volatile boolean          running  = true;
+      // full models found in the cache or loaded anew
+      final AtomicLong          cacheHits   = new AtomicLong();
+      final AtomicLong          cacheMisses = new AtomicLong();
+      // longest request frame accepted, set before start()
+      int                       maxFrame = MAX_FRAME;
+      // directory owned by the server that holds the files of SHM_ATTACH,
+      // null to refuse shared memory; set before start()
+      File                      shmDirectory;
 
-      Server(PipedInputStream in, PipedOutputStream out)
+      Server(InetSocketAddress address, int threadsPerSolve) throws IOException
       {
-         pin  = in;
-         pout = out;
+         this(address, threadsPerSolve, 256L << 20, 64);
+      }
+
+      // threadsPerSolve <= 0 means all cores for a single solve at a time.
+      Server(InetSocketAddress address, int threadsPerSolve, long cacheBytes,
+             int queueCapacity) throws IOException
+      {
+         super("CplexServer");
+         int cores = Runtime.getRuntime().availableProcessors();
+         this.threadsPerSolve = threadsPerSolve > 0 ? threadsPerSolve : cores;
+         cache = new ModelCache(cacheBytes);
+         metrics = new QueueMetrics[PRIORITY_NAMES.length];
+         for (int c = 0; c < metrics.length; ++c)
+            metrics[c] = new QueueMetrics(queueCapacity);
+         selector = Selector.open();
+         acceptor = ServerSocketChannel.open();
+         acceptor.bind(address);
+         acceptor.configureBlocking(false);
+         acceptor.register(selector, SelectionKey.OP_ACCEPT);
+
+         // share the cores out across concurrent solves
+         int nsolvers = Math.max(1, cores / this.threadsPerSolve);
+         // keep about one idle IloCplex per solver thread for a minute
+         pool = new CplexPool(nsolvers, 60000, new CplexPool.Setup() {
+               public void apply(IloCplex cplex) throws IloException {
+                  cplex.setParam(IloCplex.Param.Threads,
+                                 Server.this.threadsPerSolve);
+                  cplex.setOut(null);
+               }
+            });
+         // cached models hold their lease for as long as they are cached,
+         // so do not report long loans; dropped leases are still reclaimed
+         pool.leakNanos = Long.MAX_VALUE;
+         solvers = new ThreadPoolExecutor(nsolvers, nsolvers,
+                                          0L, TimeUnit.MILLISECONDS,
+                                          new PriorityBlockingQueue<Runnable>());
+      }
+
+      // Queue depth and wait times per priority class, and pool usage.
+      String metrics()
+      {
+         StringBuilder sb = new StringBuilder();
+         for (int c = 0; c < metrics.length; ++c)
+            sb.append(PRIORITY_NAMES[c]).append(": ").append(metrics[c])
+              .append('\n');
+         sb.append("model cache: hits ").append(cacheHits.get())
+           .append(", misses ").append(cacheMisses.get()).append('\n');
+         sb.append("IloCplex pool: ").append(pool).append('\n');
+         return sb.toString();
+      }
+
+      InetSocketAddress getAddress() throws IOException
+      {
+         return (InetSocketAddress)acceptor.getLocalAddress();
+      }
+
+      void shutdown()
+      {
+         running = false;
+         selector.wakeup();
       }
 
       public void run()
       {
          try {
-            ObjectInputStream  is = new ObjectInputStream(pin);
-            ObjectOutputStream os = new ObjectOutputStream(pout);
-            while ( true ) {
-               ModelData data = (ModelData)is.readObject();
-               
-               if ( data.model == null ) {
-                  is.close();
-                  return;
+            while ( running ) {
+               selector.select();
+
+               // register write interest for connections with new responses
+               Connection conn;
+               while ( (conn = writable.poll()) != null ) {
+                  SelectionKey key = conn.channel.keyFor(selector);
+                  if ( key != null && key.isValid() )
+                     key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                }
-               IloCplex cplex = new IloCplex();
-               cplex.setModel(data.model);
 
-               SolutionData sol = new SolutionData();
-               if ( cplex.solve() ) {
-                  sol.obj  = cplex.getObjValue();
-                  sol.vals = cplex.getValues(data.vars);
+               if ( resume ) {
+                  resume = false;
+                  resumePaused();
                }
-               sol.status = cplex.getCplexStatus();
-               os.writeObject(sol);
 
-               cplex.end();
+               Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+               while ( it.hasNext() ) {
+                  SelectionKey key = it.next();
+                  it.remove();
+                  try {
+                     if ( key.isAcceptable() )
+                        accept();
+                     else {
+                        if ( key.isReadable() )
+                           read(key);
+                        if ( key.isValid() && key.isWritable() )
+                           write(key);
+                     }
+                  }
+                  catch (IOException e) {
+                     // the client went away or sent a bad frame, drop the
+                     // connection and stop its requests
+                     disconnect(key);
+                  }
+                  catch (RuntimeException e) {
+                     // a malformed request must not take down the server
+                     System.err.println("dropping client after " + e);
+                     disconnect(key);
+                  }
+               }
             }
          }
          catch (Throwable t) {
             System.err.println("server terminates due to " + t);
          }
+         finally {
+            solvers.shutdownNow();
+            cache.close();
+            pool.close();
+            try {
+               for (SelectionKey key : selector.keys())
+                  key.channel().close();
+               selector.close();
+            }
+            catch (IOException e) {
+               System.err.println("server close failed: " + e);
+            }
+         }
+      }
+
+      void accept() throws IOException
+      {
+         SocketChannel ch = acceptor.accept();
+         if ( ch == null )
+            return;
+         ch.configureBlocking(false);
+         ch.register(selector, SelectionKey.OP_READ,
+                     new Connection(ch, maxFrame));
+      }
+
+      void read(SelectionKey key) throws IOException
+      {
+         Connection conn = (Connection)key.attachment();
+         ByteBuffer msg;
+         while ( conn.parked == null && (msg = conn.read()) != null )
+            dispatch(conn, msg);
+      }
+
+      void disconnect(SelectionKey key)
+      {
+         key.cancel();
+         try {
+            key.channel().close();
+         }
+         catch (IOException e) {
+            // nothing left to do with it
+         }
+         if ( key.attachment() instanceof Connection )
+            drop((Connection)key.attachment());
+      }
+
+      void drop(Connection conn)
+      {
+         paused.remove(conn);
+         closeShared(conn);
+         conn.parked = null;
+         for (Job job : conn.jobs.values()) {
+            job.request.cancel();
+            unqueue(job);
+         }
+      }
+
+      void write(SelectionKey key) throws IOException
+      {
+         Connection conn = (Connection)key.attachment();
+         if ( conn.flush() )
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+
+      // Called from any thread to queue a response on a connection.
+      void send(Connection conn, ByteBuffer buf)
+      {
+         conn.pending.add(buf);
+         writable.add(conn);
+         selector.wakeup();
+      }
+
+      void dispatch(Connection conn, ByteBuffer msg)
+      {
+         long id    = msg.getLong();
+         byte type  = msg.get();
+         byte flags = msg.get();
+         if ( type == CANCEL ) {
+            Job job = conn.jobs.get(id);
+            if ( job != null ) {
+               job.request.cancel();
+               metrics[job.request.priority].cancelled.incrementAndGet();
+               if ( unqueue(job) )
+                  sendError(conn, id, "cancelled");
+            }
+            return;
+         }
+         if ( type == SHM_ATTACH ) {
+            String name = StandardCharsets.UTF_8.decode(msg.slice()).toString();
+            closeShared(conn);
+            try {
+               conn.shm = SharedMemory.open(sharedFile(name));
+            }
+            catch (IOException e) {
+               sendError(conn, id, "cannot map " + name + ": " + e);
+            }
+            return;
+         }
+         if ( type != MODEL && type != DELTA && type != SHM_MODEL &&
+              type != MODELS ) {
+            sendError(conn, id, "unknown message type " + type);
+            return;
+         }
+         if ( msg.remaining() < OPTIONS ) {
+            sendError(conn, id, "truncated request options");
+            return;
+         }
+         byte   priority  = msg.get();
+         double timeLimit = msg.getDouble();
+         if ( priority < 0 || priority >= metrics.length ) {
+            sendError(conn, id, "unknown priority class " + priority);
+            return;
+         }
+         Request request = new Request(conn, id, flags, priority, timeLimit);
+         Job job = new Job(this, request, type, msg.slice(),
+                           nextSeq.incrementAndGet());
+         if ( !admit(job) ) {
+            // queue full: stop reading from this connection until the
+            // solvers have made room
+            conn.parked = job;
+            metrics[priority].paused.incrementAndGet();
+            SelectionKey key = conn.channel.keyFor(selector);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            paused.add(conn);
+         }
+      }
+
+      // The file called name in shmDirectory.  Anything that is not a
+      // plain regular file directly inside it, including a symbolic link
+      // out of it, is refused.
+      File sharedFile(String name) throws IOException
+      {
+         if ( shmDirectory == null )
+            throw new IOException("shared memory is not enabled");
+         File dir  = shmDirectory.getCanonicalFile();
+         File file = new File(dir, name);
+         if ( name.isEmpty() || !name.equals(file.getName()) ||
+              !dir.equals(file.getCanonicalFile().getParentFile()) ||
+              !file.isFile() )
+            throw new IOException("not a file in the shared directory");
+         return file;
+      }
+
+      void closeShared(Connection conn)
+      {
+         SharedMemory shm = conn.shm;
+         conn.shm = null;
+         if ( shm != null ) {
+            try {
+               shm.close();
+            }
+            catch (IOException e) {
+               // nothing left to do with it
+            }
+         }
+      }
+
+      // Queue job if its class has room.
+      boolean admit(Job job)
+      {
+         QueueMetrics m = metrics[job.request.priority];
+         if ( m.depth.get() >= m.capacity )
+            return false;
+         m.depth.incrementAndGet();
+         m.admitted.incrementAndGet();
+         job.request.conn.jobs.put(job.request.id, job);
+         solvers.execute(job);
+         return true;
+      }
+
+      // Take a job out of the queue before a solver got to it.
+      boolean unqueue(Job job)
+      {
+         if ( !solvers.remove(job) )
+            return false;
+         job.request.conn.jobs.remove(job.request.id);
+         metrics[job.request.priority].depth.decrementAndGet();
+         wakePaused();
+         return true;
+      }
+
+      // Called by a solver thread when it takes a job off the queue.
+      void started(Job job)
+      {
+         QueueMetrics m = metrics[job.request.priority];
+         m.depth.decrementAndGet();
+         m.waited(System.nanoTime() - job.request.arrival);
+         wakePaused();
+      }
+
+      void wakePaused()
+      {
+         resume = true;
+         selector.wakeup();
+      }
+
+      // Admit parked requests that fit now and resume reading from their
+      // connections.  Runs on the selector thread.
+      void resumePaused() throws IOException
+      {
+         // reading may pause a connection again, so work on a copy
+         List<Connection> waiting = new ArrayList<Connection>(paused);
+         paused.clear();
+         for (Connection conn : waiting) {
+            if ( !admit(conn.parked) ) {
+               paused.add(conn);
+               continue;
+            }
+            conn.parked = null;
+            SelectionKey key = conn.channel.keyFor(selector);
+            if ( key == null || !key.isValid() )
+               continue;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            try {
+               read(key);
+            }
+            catch (IOException e) {
+               disconnect(key);
+            }
+            catch (RuntimeException e) {
+               System.err.println("dropping client after " + e);
+               disconnect(key);
+            }
+         }
+      }
+
+      void sendError(Connection conn, long id, String message)
+      {
+         send(conn, errorFrame(id, message));
+      }
+
+      // Solve a full model, reusing the cached IloCplex if the same model
+      // has been solved before.
+      SolutionData solve(ModelWire model, Request request)
+         throws IloException
+      {
+         long fingerprint = model.fingerprint();
+         long checksum    = model.checksum();
+         CachedModel entry = cache.take(fingerprint);
+         if ( entry != null && entry.checksum != checksum ) {
+            // another model with the same fingerprint: leave it alone, the
+            // new one replaces it in the cache once it is solved
+            cache.put(entry);
+            entry = null;
+         }
+         (entry == null ? cacheMisses : cacheHits).incrementAndGet();
+         if ( entry == null ) {
+            entry = new CachedModel();
+            entry.fingerprint = fingerprint;
+            entry.checksum    = checksum;
+            entry.bytes       = footprint(model.ncols, model.nrows, model.nnz());
+            entry.obj         = model.obj.clone();
+            entry.lease       = pool.borrow();
+            entry.cplex       = entry.lease.cplex();
+            try {
+               entry.vars = model.load(entry.cplex);
+            }
+            catch (IloException e) {
+               entry.release();
+               throw e;
+            }
+         }
+         return solveCached(entry, request);
+      }
+
+      // Apply a delta to a cached model and re-solve it warm.  base is
+      // either the model itself or the model before its last delta, which
+      // is taken back first.
+      SolutionData solveDelta(long base, ModelWire.Delta delta,
+                              Request request) throws IloException
+      {
+         CachedModel entry = cache.take(base);
+         if ( entry == null )
+            entry = cache.takeDerived(base);
+         if ( entry == null )
+            throw new IloException("model " + Long.toHexString(base)
+                                   + " is not cached, send the full model");
+         if ( !delta.fits(entry.vars.length) ) {
+            cache.put(entry);
+            throw new IloException("delta refers to columns beyond the "
+                                   + entry.vars.length + " of model "
+                                   + Long.toHexString(base));
+         }
+         try {
+            // An LP re-solve starts from the previous basis by itself; for
+            // a MIP keep the previous incumbent as a start.  Read it before
+            // the model changes.
+            double[] start = null;
+            if ( entry.solved && entry.cplex.isMIP() )
+               start = entry.cplex.getValues(entry.vars);
+
+            if ( entry.fingerprint != base ) {
+               entry.undo.revert(entry.cplex, entry.vars, entry.obj);
+               entry.bytes      -= footprint(0, entry.undo.nrows, entry.undo.nnz);
+               entry.fingerprint = base;
+               entry.checksum    = entry.baseChecksum;
+            }
+            entry.undo         = delta.apply(entry.cplex, entry.vars, entry.obj);
+            entry.base         = base;
+            entry.baseChecksum = entry.checksum;
+
+            if ( start != null ) {
+               // one start only, replacing that of the previous delta
+               int n = entry.cplex.getNMIPStarts();
+               if ( n > 0 )
+                  entry.cplex.deleteMIPStarts(0, n);
+               entry.cplex.addMIPStart(entry.vars, start,
+                                       IloCplex.MIPStartEffort.Repair);
+            }
+         }
+         catch (IloException e) {
+            entry.release();
+            throw e;
+         }
+         entry.fingerprint = delta.fingerprint(base);
+         entry.checksum    = delta.hash(entry.baseChecksum);
+         entry.bytes      += footprint(0, delta.nrows, delta.nnz());
+         return solveCached(entry, request);
+      }
+
+      // Solve all models of a batch on one pooled IloCplex.  A model that
+      // fails gets an error entry; the others are still solved.
+      SolutionData[] solveBatch(ByteBuffer payload, Request request)
+         throws IloException, IOException
+      {
+         int count = payload.getInt();
+         if ( count < 0 || count > payload.remaining() / 4 )
+            throw new IOException("bad model count " + count);
+         SolutionData[] sols = new SolutionData[count];
+         CplexPool.Lease lease = pool.borrow();
+         IloCplex cplex = lease.cplex();
+         IloCplex.Aborter aborter = new IloCplex.Aborter();
+         cplex.use(aborter);
+         request.aborter = aborter;
+         if ( request.cancelled )
+            aborter.abort();
+         try {
+            for (int i = 0; i < sols.length; ++i) {
+               int length = payload.getInt();
+               ByteBuffer src = payload.slice();
+               src.limit(length);
+               payload.position(payload.position() + length);
+
+               SolutionData sol = new SolutionData();
+               sols[i] = sol;
+               double remaining = request.remaining();
+               if ( remaining <= 0.0 || request.cancelled ) {
+                  sol.error = request.cancelled ? "cancelled"
+                                                : "time limit expired";
+                  continue;
+               }
+               try {
+                  ModelWire model = ModelWire.decode(src);
+                  cplex.clearModel();
+                  IloNumVar[] vars = model.load(cplex);
+                  cplex.setParam(IloCplex.Param.TimeLimit,
+                                 Math.min(remaining, 1e+75));
+                  sol.model = model.fingerprint();
+                  if ( cplex.solve() ) {
+                     sol.obj  = cplex.getObjValue();
+                     sol.vals = cplex.getValues(vars);
+                  }
+                  sol.status = cplex.getCplexStatus();
+               }
+               catch (IloException e) {
+                  sol.error = e.toString();
+               }
+            }
+         }
+         finally {
+            // clearCallbacks() in the pool's reset does not detach an
+            // aborter, so remove it before ending it
+            request.aborter = null;
+            try {
+               cplex.remove(aborter);
+            }
+            finally {
+               aborter.end();
+               lease.close();
+            }
+         }
+         return sols;
+      }
+
+      SolutionData solveCached(CachedModel entry, Request request)
+         throws IloException
+      {
+         SolutionData sol = new SolutionData();
+         try {
+            sol.model = entry.fingerprint;
+            if ( (request.flags & STREAM) != 0 )
+               entry.cplex.use(new ProgressStreamer(this, request, entry.vars),
+                               IloCplex.Callback.Context.Id.GlobalProgress);
+            double remaining = request.remaining();
+            entry.cplex.setParam(IloCplex.Param.TimeLimit,
+                                 Math.min(remaining, 1e+75));
+            IloCplex.Aborter aborter = new IloCplex.Aborter();
+            entry.cplex.use(aborter);
+            request.aborter = aborter;
+            // a cancel that came before the aborter was set
+            if ( request.cancelled )
+               aborter.abort();
+            try {
+               entry.solved = entry.cplex.solve();
+            }
+            finally {
+               // the model stays cached, do not keep this request's
+               // callback, aborter or time limit
+               request.aborter = null;
+               entry.cplex.remove(aborter);
+               aborter.end();
+               entry.cplex.clearCallbacks();
+               entry.cplex.setParam(IloCplex.Param.TimeLimit, 1e+75);
+            }
+            if ( entry.solved ) {
+               sol.obj  = entry.cplex.getObjValue();
+               sol.vals = entry.cplex.getValues(entry.vars);
+            }
+            sol.status = entry.cplex.getCplexStatus();
+         }
+         catch (IloException e) {
+            entry.release();
+            throw e;
+         }
+         cache.put(entry);
+         return sol;
+      }
+   }
+
+
+   // A client that can have any number of requests in flight on one
+   // connection.  A reader thread completes the futures by request id.
+   static class Client extends Thread implements Closeable {
+      final SocketChannel channel;
+      final AtomicLong    nextId  = new AtomicLong();
+      final Map<Long, CompletableFuture<SolutionData>> inFlight =
+         new ConcurrentHashMap<Long, CompletableFuture<SolutionData>>();
+      final Map<Long, Stream> streams = new ConcurrentHashMap<Long, Stream>();
+      final Map<Long, CompletableFuture<SolutionData[]>> batches =
+         new ConcurrentHashMap<Long, CompletableFuture<SolutionData[]>>();
+      // ring buffer shared with the server and the regions of requests in
+      // flight
+      SharedMemory shm;
+      final Map<Long, SharedMemory.Region> regions =
+         new ConcurrentHashMap<Long, SharedMemory.Region>();
+
+      // listener and rebuilt incumbent vector of a streaming request
+      static class Stream {
+         final ProgressListener listener;
+         final double[]         vals;
+
+         Stream(ProgressListener listener, int ncols)
+         {
+            this.listener = listener;
+            this.vals     = new double[ncols];
+         }
+      }
+
+      Client(InetSocketAddress address) throws IOException
+      {
+         super("CplexServer.Client");
+         setDaemon(true);
+         channel = SocketChannel.open(address);
+         start();
+      }
+
+      // Per-request settings.
+      static class Options {
+         byte             priority  = INTERACTIVE;
+         double           timeLimit = 0.0;     // seconds, 0 for none
+         ProgressListener listener  = null;    // progress of the solve
+         boolean          withValues;          // stream incumbent values too
+
+         Options priority(byte p)    { priority = p; return this; }
+         Options timeLimit(double t) { timeLimit = t; return this; }
+         Options progress(ProgressListener l, boolean values)
+         {
+            listener   = l;
+            withValues = values;
+            return this;
+         }
+      }
+
+      // Pending response; cancel() also cancels the request on the server.
+      class Call extends CompletableFuture<SolutionData> {
+         final long id;
+
+         Call(long id)
+         {
+            this.id = id;
+         }
+
+         public boolean cancel(boolean mayInterruptIfRunning)
+         {
+            boolean done = super.cancel(mayInterruptIfRunning);
+            if ( done ) {
+               try {
+                  write(cancelFrame(id));
+               }
+               catch (IOException e) {
+                  // the connection is gone, so is the request
+               }
+            }
+            return done;
+         }
+      }
+
+      Future<SolutionData> submit(ModelWire model) throws IOException
+      {
+         return submit(model, new Options());
+      }
+
+      // Solve model; if listener is not null it is called with the progress
+      // of the solve, including the incumbent values if withValues is set.
+      Future<SolutionData> submit(ModelWire model, ProgressListener listener,
+                                  boolean withValues) throws IOException
+      {
+         return submit(model, new Options().progress(listener, withValues));
+      }
+
+      Future<SolutionData> submit(ModelWire model, Options opt)
+         throws IOException
+      {
+         long id    = nextId.incrementAndGet();
+         byte flags = stream(id, opt.listener, opt.withValues, model.ncols);
+         return send(id, modelFrame(id, flags, opt.priority, opt.timeLimit,
+                                    model));
+      }
+
+      // Re-solve the cached model with fingerprint model after applying
+      // delta to it.
+      Future<SolutionData> submit(long model, ModelWire.Delta delta)
+         throws IOException
+      {
+         return submit(model, delta, new Options(), 0);
+      }
+
+      // As above with progress streaming; ncols is the number of columns of
+      // the model, needed to rebuild the incumbent vector.
+      Future<SolutionData> submit(long model, ModelWire.Delta delta,
+                                  ProgressListener listener,
+                                  boolean withValues, int ncols)
+         throws IOException
+      {
+         return submit(model, delta,
+                       new Options().progress(listener, withValues), ncols);
+      }
+
+      Future<SolutionData> submit(long model, ModelWire.Delta delta,
+                                  Options opt, int ncols)
+         throws IOException
+      {
+         long id    = nextId.incrementAndGet();
+         byte flags = stream(id, opt.listener, opt.withValues, ncols);
+         return send(id, deltaFrame(id, flags, opt.priority, opt.timeLimit,
+                                    model, delta));
+      }
+
+      // Solve many models with one request.  The result has one entry per
+      // model, in order; entries of failed models only carry an error.
+      Future<SolutionData[]> submitBatch(ModelWire[] models, Options opt)
+         throws IOException
+      {
+         long id = nextId.incrementAndGet();
+         CompletableFuture<SolutionData[]> future =
+            new CompletableFuture<SolutionData[]>();
+         batches.put(id, future);
+         write(modelsFrame(id, opt.priority, opt.timeLimit, models));
+         return future;
+      }
+
+      // Create a ring buffer of capacity bytes in file and ask the server
+      // to map it too.  Only useful when client and server share a host;
+      // file must be directly in the server's shmDirectory.
+      void attach(File file, int capacity) throws IOException
+      {
+         shm = SharedMemory.create(file, capacity);
+         write(attachFrame(nextId.incrementAndGet(), file.getName()));
+      }
+
+      // Like submit(model, opt), but the model and its solution are passed
+      // through the shared ring buffer.  Blocks while the ring is full.
+      Future<SolutionData> submitShared(ModelWire model, Options opt)
+         throws IOException, InterruptedException
+      {
+         int length = model.encodedSize();
+         int size   = Math.max(length, 8 + 4 + 8 + 4 + 8 * model.ncols);
+         SharedMemory.Region region = shm.allocate(size);
+         model.encode(shm.region(region.offset, size));
+
+         long id    = nextId.incrementAndGet();
+         byte flags = stream(id, opt.listener, opt.withValues, model.ncols);
+         regions.put(id, region);
+         return send(id, shmModelFrame(id, flags, opt.priority, opt.timeLimit,
+                                       region.offset, length, region.size));
+      }
+
+      byte stream(long id, ProgressListener listener, boolean withValues,
+                  int ncols)
+      {
+         if ( listener == null )
+            return 0;
+         streams.put(id, new Stream(listener, withValues ? ncols : 0));
+         return withValues ? (byte)(STREAM | STREAM_VALUES) : STREAM;
+      }
+
+      Future<SolutionData> send(long id, ByteBuffer buf) throws IOException
+      {
+         Call future = new Call(id);
+         inFlight.put(id, future);
+         write(buf);
+         return future;
+      }
+
+      void write(ByteBuffer buf) throws IOException
+      {
+         synchronized (channel) {
+            while ( buf.hasRemaining() )
+               channel.write(buf);
+         }
+      }
+
+      public void run()
+      {
+         ByteBuffer length = ByteBuffer.allocate(4);
+         try {
+            while ( true ) {
+               readFully(length);
+               length.flip();
+               ByteBuffer msg = ByteBuffer.allocate(length.getInt());
+               length.clear();
+               readFully(msg);
+               msg.flip();
+
+               long id   = msg.getLong();
+               byte type = msg.get();
+               msg.get();   // flags
+               if ( type == PROGRESS ) {
+                  Stream stream = streams.get(id);
+                  if ( stream != null ) {
+                     Progress p = decodeProgress(msg.slice(), stream.vals);
+                     if ( stream.vals.length == 0 )
+                        p.vals = null;
+                     stream.listener.progress(id, p);
+                  }
+                  continue;
+               }
+               CompletableFuture<SolutionData[]> batch = batches.remove(id);
+               if ( batch != null ) {
+                  if ( type == SOLUTIONS )
+                     batch.complete(decodeSolutions(msg.slice()));
+                  else
+                     batch.completeExceptionally(new IOException(
+                        StandardCharsets.UTF_8.decode(msg.slice()).toString()));
+                  continue;
+               }
+               streams.remove(id);
+               SharedMemory.Region region = regions.remove(id);
+               CompletableFuture<SolutionData> future = inFlight.remove(id);
+               if ( type == SHM_SOLUTION ) {
+                  int size = msg.getInt();
+                  SolutionData sol =
+                     ModelWire.decodeSolution(shm.region(region.offset, size));
+                  shm.release(region);
+                  if ( future != null )
+                     future.complete(sol);
+                  continue;
+               }
+               if ( region != null )
+                  shm.release(region);
+               if ( future == null )
+                  continue;
+               if ( type == SOLUTION )
+                  future.complete(ModelWire.decodeSolution(msg.slice()));
+               else
+                  future.completeExceptionally(new IOException(
+                     StandardCharsets.UTF_8.decode(msg.slice()).toString()));
+            }
+         }
+         catch (Exception e) {
+            for (CompletableFuture<SolutionData> future : inFlight.values())
+               future.completeExceptionally(e);
+            for (CompletableFuture<SolutionData[]> batch : batches.values())
+               batch.completeExceptionally(e);
+         }
+      }
+
+      void readFully(ByteBuffer buf) throws IOException
+      {
+         while ( buf.hasRemaining() ) {
+            if ( channel.read(buf) < 0 )
+               throw new EOFException();
+         }
+      }
+
+      public void close() throws IOException
+      {
+         channel.close();
+         if ( shm != null )
+            shm.close();
       }
    }
 }
@@ -17,40 +17,109 @@ package examples;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ilog.concert.*;
 import ilog.cplex.*;
 
 class CutStock {
     static double RC_EPS = 1.0e-6;
+    /** 向下取整时的整数容差 */
+    static double INT_EPS = 1.0e-6;
+    /** Pricing Problem产生重复切割方案时，对价格的相对扰动 */
+    static double PRICE_PERTURB = 1.0e-3;
     
-    static double rollWidth;
-    static double[] size;
-    static double[] amount;
+    /** 各类原料（卷材）的宽度 */
+    final double[] rollWidth;
+    /** 各类原料每卷的成本，只有一种原料时为1，即目标为使用的卷数 */
+    final double[] rollCost;
+    final double[] size;
+    final double[] amount;
 
-    static void readData(String fileName) throws IOException, InputDataReader.InputDataReaderException {
+    /** 该订单最多使用的线程数（RMLP，或同时求解的各个Pricing Problem合计），0表示使用全部核 */
+    int threads = 0;
+    /** 是否输出列生成过程以及CPLEX日志 */
+    boolean verbose = true;
+    /** MIP polishing的时间上限（秒），不大于0时不进行polishing */
+    double polishTime = 0.0;
+
+    // RMLP Model
+    IloCplex rmlpSolver;
+    IloObjective rollsUsed;
+    IloRange[] fill;
+    // 存储列生成过程中的切割方案
+    IloNumVarArray cutPattern;
+
+    // Pricing Model，每类原料一个背包问题，共享fill的对偶值
+    IloCplex[] patSolver;
+    IloObjective[] reducedCost;
+    IloNumVar[][] times;
+    // 并行求解各类原料的Pricing Problem
+    ExecutorService pricingPool;
+    // 各Pricing Problem的求解输出，由pricing()在所有Pricing Problem求解完成后按原料顺序打印
+    String[] pricingReport;
+
+    // Pricing Problem产生的重复切割方案的数量
+    final AtomicInteger duplicates = new AtomicInteger();
+
+    // 求解结果（以rollCost计，只有一种原料时即为卷数）
+    double lpBound;
+    double[] intCuts;
+    double intRolls;
+
+    CutStock(double rollWidth, double[] size, double[] amount) {
+        this(new double[] {rollWidth}, new double[] {1.0}, size, amount);
+    }
+
+    CutStock(double[] rollWidth, double[] rollCost, double[] size, double[] amount) {
+        this.rollWidth = rollWidth;
+        this.rollCost = rollCost;
+        this.size = size;
+        this.amount = amount;
+    }
+
+    /**
+     * 读取订单数据：原料宽度可以是单个数值，也可以是数组；
+     * 原料多于一种时，需求量之后还需给出各类原料的成本 .<br>
+     */
+    static CutStock readData(String fileName) throws IOException, InputDataReader.InputDataReaderException {
         InputDataReader reader = new InputDataReader(fileName);
 
-        rollWidth = reader.readDouble();
-        size = reader.readDoubleArray();
-        amount = reader.readDoubleArray();
+        double[] rollWidth = reader.readDoubleOrDoubleArray();
+        double[] size = reader.readDoubleArray();
+        double[] amount = reader.readDoubleArray();
+        double[] rollCost = new double[] {1.0};
+        if (rollWidth.length > 1) {
+            rollCost = reader.readDoubleArray();
+            if (rollCost.length != rollWidth.length) {
+                throw new InputDataReader.InputDataReaderException(fileName);
+            }
+        }
+        return new CutStock(rollWidth, rollCost, size, amount);
     }
 
     /**
      * Description .<br>
      * 
-     * @param rmlpSolver
-     * @param cut
-     * @param fill
      * @throws IloException
      */
-    static void report1(IloCplex rmlpSolver, IloNumVarArray cut, IloRange[] fill) throws IloException {
+    void report1() throws IloException {
+        if (!verbose) {
+            return;
+        }
         System.out.println();
         System.out.println("Using " + rmlpSolver.getObjValue() + " rolls");
 
         System.out.println();
-        for (int j = 0; j < cut.getSize(); j++) {
-            System.out.println("  Cut" + j + " = " + rmlpSolver.getValue(cut.getCutNum(j)));
+        for (int j = 0; j < cutPattern.getSize(); j++) {
+            System.out.println("  Cut" + j + " = " + rmlpSolver.getValue(cutPattern.getCutNum(j)));
         }
         System.out.println();
 
@@ -60,26 +129,76 @@ class CutStock {
         System.out.println();
     }
 
-    static void report2(IloCplex patSolver, IloNumVar[] times) throws IloException {
-        System.out.println();
-        System.out.println("Reduced cost is " + patSolver.getObjValue());
+    /**
+     * 记录第t类原料Pricing Problem的求解结果；并行求解时直接打印会相互交错 .<br>
+     */
+    void report2(int t) throws IloException {
+        if (!verbose) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        String nl = System.lineSeparator();
+        sb.append(nl);
+        sb.append("Reduced cost of roll " + rollWidth[t] + " is " + patSolver[t].getObjValue()).append(nl);
 
-        System.out.println();
-        if (patSolver.getObjValue() <= -RC_EPS) {
-            for (int i = 0; i < times.length; i++) {
-                System.out.println("  Use" + i + " = " + patSolver.getValue(times[i]));
+        sb.append(nl);
+        if (patSolver[t].getObjValue() <= -RC_EPS) {
+            for (int i = 0; i < times[t].length; i++) {
+                sb.append("  Use" + i + " = " + patSolver[t].getValue(times[t][i])).append(nl);
             }
-            System.out.println();
+            sb.append(nl);
         }
+        pricingReport[t] = sb.toString();
     }
 
-    static void report3(IloCplex rmlpSolver, IloNumVarArray cut) throws IloException {
+    void report3() throws IloException {
+        if (!verbose) {
+            return;
+        }
         System.out.println();
         System.out.println("Best integer solution uses " + rmlpSolver.getObjValue() + " rolls");
         System.out.println();
-        for (int j = 0; j < cut.getSize(); j++) {
-            System.out.println("  Cut" + j + " = " + rmlpSolver.getValue(cut.getCutNum(j)));
+        for (int j = 0; j < cutPattern.getSize(); j++) {
+            System.out.println("  Cut" + j + " = " + rmlpSolver.getValue(cutPattern.getCutNum(j)));
+        }
+    }
+
+    /**
+     * 输出最终的切割方案以及与LP下界之间的gap .<br>
+     */
+    void report4() {
+        System.out.println();
+        System.out.println("LP bound: " + lpBound + " (" + intBound() + ")");
+        System.out.println("Integer solution: " + intRolls + " rolls, gap = " + gap() + "%");
+        System.out.println("Duplicate patterns rejected: " + duplicates.get());
+
+        System.out.println("Cut plan: ");
+        for (int i = 0; i < cutPattern.getSize(); i++) {
+            if (intCuts[i] > 0.0) {
+                System.out.print("Cut" + i + " \n= " + intCuts[i]);
+                System.out.print("    Roll" + " = " + rollWidth[cutPattern.getStock(i)]);
+                System.out.println("    Pattern" + " = " + Arrays.toString(cutPattern.getPattern(i)));
+            }
+        }
+    }
+
+    /**
+     * 整数解的下界：成本均为1时LP下界可以向上取整 .<br>
+     */
+    double intBound() {
+        for (int t = 0; t < rollCost.length; t++) {
+            if (rollCost[t] != 1.0) {
+                return lpBound;
+            }
         }
+        return Math.ceil(lpBound - RC_EPS);
+    }
+
+    /**
+     * 整数解相对于整数解下界的gap，单位为% .<br>
+     */
+    double gap() {
+        return 100.0 * (intRolls - intBound()) / intRolls;
     }
 
     /**
@@ -93,6 +212,10 @@ class CutStock {
         int num = 0;
         IloNumVar[] array = new IloNumVar[32];
         ArrayList<double[]> patterns = new ArrayList<double[]>();
+        // 各切割方案所用原料的下标
+        ArrayList<Integer> stocks = new ArrayList<Integer>();
+        // 切割方案的哈希索引，用于O(1)判断重复
+        HashSet<PatternKey> index = new HashSet<PatternKey>();
 
         void add(IloNumVar ivar) {
             // resizing the array
@@ -104,8 +227,14 @@ class CutStock {
             array[num++] = ivar;
         }
         
-        void add(double[] pattern) {
+        void add(double[] pattern, int stock) {
             patterns.add(pattern);
+            stocks.add(stock);
+            index.add(new PatternKey(pattern, stock));
+        }
+
+        boolean contains(double[] pattern, int stock) {
+            return index.contains(new PatternKey(pattern, stock));
         }
 
         IloNumVar getCutNum(int i) {
@@ -116,129 +245,517 @@ class CutStock {
             return patterns.get(i);
         }
 
+        int getStock(int i) {
+            return stocks.get(i);
+        }
+
         int getSize() {
             return num;
         }
     }
     
-    
-    public static void main(String[] args) {
-        String datafile = "./data/cutstock.dat";
-        try {
-            if (args.length > 0) {
-                datafile = args[0];
-            }
-            readData(datafile);
-
-            // RMLP（MLP）的求解器
-            IloCplex rmlpSolver = new IloCplex();
-            
-            // RMLP Model
-            IloObjective rollsUsed = rmlpSolver.addMinimize();
-            IloRange[] fill = new IloRange[amount.length];
-            for (int f = 0; f < amount.length; f++) {
-                // MLP Model中的各类木材需求量约束
-                fill[f] = rmlpSolver.addRange(amount[f], Double.MAX_VALUE);
-            }
-            
-            // 存储列生成过程中的切割方案
-            IloNumVarArray cutPattern = new IloNumVarArray();
-            
-            /*
-             * RMLP Model
-             * 每次添加新的列，包括目标函数的变化、约束条件的变化，这里先初始化：
-             * 初始化列，得到nWdth列，每列对应一种切割方案——只产生一种长度木材的切割方案
-             */
-            int nWdth = size.length;
+    /**
+     * 切割方案的哈希键：原料下标与取整后的各长度木材份数 .<br>
+     */
+    static final class PatternKey {
+        final int stock;
+        final int[] counts;
+        final int hash;
+
+        PatternKey(double[] pattern, int stock) {
+            this.stock = stock;
+            this.counts = new int[pattern.length];
+            for (int i = 0; i < pattern.length; i++) {
+                counts[i] = (int) Math.round(pattern[i]);
+            }
+            this.hash = 31 * Arrays.hashCode(counts) + stock;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PatternKey)) {
+                return false;
+            }
+            PatternKey other = (PatternKey) obj;
+            return stock == other.stock && Arrays.equals(counts, other.counts);
+        }
+    }
+
+    /**
+     * 建立RMLP与各类原料的Pricing Problem。RMLP使用threads个线程；
+     * 各Pricing Problem同时求解，线程数平分threads，合计不超过threads .<br>
+     * 
+     * @throws IloException
+     */
+    void buildModels() throws IloException {
+        // RMLP（MLP）的求解器
+        rmlpSolver = new IloCplex();
+
+        // RMLP Model
+        rollsUsed = rmlpSolver.addMinimize();
+        fill = new IloRange[amount.length];
+        for (int f = 0; f < amount.length; f++) {
+            // MLP Model中的各类木材需求量约束
+            fill[f] = rmlpSolver.addRange(amount[f], Double.MAX_VALUE);
+        }
+
+        cutPattern = new IloNumVarArray();
+
+        /*
+         * RMLP Model
+         * 每次添加新的列，包括目标函数的变化、约束条件的变化，这里先初始化：
+         * 初始化列，每类原料、每种长度各得到一列，每列对应一种切割方案——只产生一种长度木材的切割方案
+         */
+        int nWdth = size.length;
+        int nStock = rollWidth.length;
+        for (int t = 0; t < nStock; t++) {
             for (int j = 0; j < nWdth; j++) {
-                cutPattern.add(rmlpSolver.numVar(
-                        rmlpSolver.column(rollsUsed, 1.0).and(rmlpSolver.column(fill[j], (int) (rollWidth / size[j]))),
-                        0.0, Double.MAX_VALUE));
-                
+                double k = (int) (rollWidth[t] / size[j]);
+                if (k < 1.0) {
+                    // 该原料宽度不足以切出这种长度的木材
+                    continue;
+                }
                 double[] pattern = new double[nWdth];
-                pattern[j] = (int) (rollWidth / size[j]);
-                cutPattern.add(pattern);
+                pattern[j] = k;
+                addColumn(t, pattern);
             }
-            
-            // 设置求解参数 - 采用单纯形法
-            rmlpSolver.setParam(IloCplex.Param.RootAlgorithm, IloCplex.Algorithm.Primal);
+        }
+
+        // 设置求解参数 - 采用单纯形法
+        rmlpSolver.setParam(IloCplex.Param.RootAlgorithm, IloCplex.Algorithm.Primal);
+        rmlpSolver.setParam(IloCplex.Param.Threads, threads);
+        if (!verbose) {
+            rmlpSolver.setOut(null);
+        }
 
-            // Pricing Model
-            IloCplex patSolver = new IloCplex();
-            IloObjective reducedCost = patSolver.addMinimize();
+        // Pricing Model
+        // 同时求解的Pricing Problem个数及各自的线程数：合计不超过该订单的线程数
+        int budget = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        int concurrent = Math.max(1, Math.min(nStock, budget));
+        int pricerThreads = concurrent > 1 ? Math.max(1, budget / concurrent) : threads;
+        pricingReport = new String[nStock];
+        patSolver = new IloCplex[nStock];
+        reducedCost = new IloObjective[nStock];
+        times = new IloNumVar[nStock][];
+        for (int t = 0; t < nStock; t++) {
+            patSolver[t] = new IloCplex();
+            reducedCost[t] = patSolver[t].addMinimize();
             // 添加变量，切割方案对应的每种长度的木材的份数
-            IloNumVar[] times = patSolver.numVarArray(nWdth, 0., Double.MAX_VALUE, IloNumVarType.Int);
+            times[t] = patSolver[t].numVarArray(nWdth, 0., Double.MAX_VALUE, IloNumVarType.Int);
             // Pricing Problem的原料长度约束
-            patSolver.addRange(-Double.MAX_VALUE, patSolver.scalProd(size, times), rollWidth);
-
-            // 列生成过程核心步骤
-            double[] newPatt = new double[nWdth];
-            for (;;) {
-                
-                // Solve the RMLP to get the primal(upper bound) and dual solution
-                rmlpSolver.solve();
-                report1(rmlpSolver, cutPattern, fill);
-
-                /// Solve the Pricing Problem，产生新的列
-                double[] price = rmlpSolver.getDuals(fill);
-                // Pricing Problem 的目标函数更新
-                reducedCost.setExpr(patSolver.diff(1., patSolver.scalProd(times, price)));
-                // 求解Pricing Problem
-                patSolver.solve();
-                report2(patSolver, times);
-                
-                // 若Pricing Problem的目标值大于0表示MLP问题求解完成，退出循环；否则生成新的列进行求解
-                if (patSolver.getObjValue() > -RC_EPS) {
-                    break;
+            patSolver[t].addRange(-Double.MAX_VALUE, patSolver[t].scalProd(size, times[t]), rollWidth[t]);
+
+            patSolver[t].setParam(IloCplex.Param.Threads, pricerThreads);
+            if (!verbose) {
+                patSolver[t].setOut(null);
+            }
+        }
+        if (concurrent > 1) {
+            pricingPool = Executors.newFixedThreadPool(concurrent);
+        }
+    }
+
+    /**
+     * 求解当前订单：列生成、残差取整以及可选的MIP polishing .<br>
+     * 
+     * @throws IloException
+     */
+    void solve() throws IloException {
+        try {
+            buildModels();
+
+            columnGeneration();
+            // MLP的最优值是整数解的下界
+            lpBound = rmlpSolver.getObjValue();
+
+            // 残差取整得到整数解
+            intCuts = residualRounding();
+            intRolls = planCost(intCuts);
+            if (verbose) {
+                System.out.println();
+                System.out.println("Residual rounding uses " + intRolls + " rolls");
+            }
+
+            if (polishTime > 0.0) {
+                polish();
+            }
+        } finally {
+            // 关闭求解器
+            if (pricingPool != null) {
+                pricingPool.shutdown();
+            }
+            if (rmlpSolver != null) {
+                rmlpSolver.end();
+            }
+            if (patSolver != null) {
+                for (IloCplex solver : patSolver) {
+                    if (solver != null) {
+                        solver.end();
+                    }
                 }
-                
-                newPatt = patSolver.getValues(times);
-
-                // 存储切割方案
-                cutPattern.add(newPatt);
-                
-                /*
-                 * 依据新的切割方案更新RMLP问题，包括：
-                 * 1.目标值
-                 * 2.约束
-                 * 3.变量
-                 * 采用按column添加的方式
-                 */
-                IloColumn column = rmlpSolver.column(rollsUsed, 1.);
-                for (int p = 0; p < newPatt.length; p++) {
-                    // 更新约束
-                    column = column.and(rmlpSolver.column(fill[p], newPatt[p]));
+            }
+        }
+    }
+
+    /**
+     * 列生成：交替求解RMLP与Pricing Problem，直到任何一类原料都不存在检验数为负的切割方案 .<br>
+     * 
+     * @throws IloException
+     */
+    void columnGeneration() throws IloException {
+        // 列生成过程核心步骤
+        for (;;) {
+
+            // Solve the RMLP to get the primal(upper bound) and dual solution
+            rmlpSolver.solve();
+            report1();
+
+            /// Solve the Pricing Problem，各类原料同时产生新的列
+            double[] price = rmlpSolver.getDuals(fill);
+            double[][] newPatts = pricing(price);
+
+            // 若所有Pricing Problem的目标值都大于0表示MLP问题求解完成，退出循环；否则加入所有新的列进行求解
+            boolean added = false;
+            for (int t = 0; t < newPatts.length; t++) {
+                if (newPatts[t] != null) {
+                    addColumn(t, newPatts[t]);
+                    added = true;
                 }
-                // 添加变量，并更新切割方案数组
-                cutPattern.add(rmlpSolver.numVar(column, 0., Double.MAX_VALUE));
             }
-            
-            for (int i = 0; i < cutPattern.getSize(); i++) {
-                // 将变量转化为int类型
-                rmlpSolver.add(rmlpSolver.conversion(cutPattern.getCutNum(i), IloNumVarType.Int));
-                
+            if (!added) {
+                break;
             }
-            
-            rmlpSolver.solve();
-            rmlpSolver.exportModel("model2.lp");
-            
+        }
+    }
+
+    /**
+     * 求解各类原料的Pricing Problem，原料多于一种时并行求解 .<br>
+     * 
+     * @param price fill约束的对偶值
+     * @return 各类原料检验数为负的切割方案，不存在时为null
+     * @throws IloException
+     */
+    double[][] pricing(final double[] price) throws IloException {
+        int nStock = rollWidth.length;
+        double[][] newPatts = new double[nStock][];
+        if (pricingPool == null) {
+            for (int t = 0; t < nStock; t++) {
+                newPatts[t] = solvePricing(t, price);
+            }
+            printPricingReports();
+            return newPatts;
+        }
+
+        List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+        for (int t = 0; t < nStock; t++) {
+            final int stock = t;
+            tasks.add(new Callable<double[]>() {
+                @Override
+                public double[] call() throws IloException {
+                    return solvePricing(stock, price);
+                }
+            });
+        }
+        try {
+            List<Future<double[]>> results = pricingPool.invokeAll(tasks);
+            for (int t = 0; t < nStock; t++) {
+                newPatts[t] = results.get(t).get();
+            }
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof IloException) {
+                throw (IloException) exc.getCause();
+            }
+            throw new IloException("Pricing failed: " + exc.getCause());
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IloException("Pricing interrupted");
+        }
+        printPricingReports();
+        return newPatts;
+    }
+
+    void printPricingReports() {
+        for (int t = 0; t < pricingReport.length; t++) {
+            if (pricingReport[t] != null) {
+                System.out.print(pricingReport[t]);
+                pricingReport[t] = null;
+            }
+        }
+    }
+
+    /**
+     * 求解第t类原料的Pricing Problem .<br>
+     * 
+     * @return 检验数为负的切割方案，不存在时为null
+     * @throws IloException
+     */
+    double[] solvePricing(int t, double[] price) throws IloException {
+        // Pricing Problem 的目标函数更新
+        reducedCost[t].setExpr(patSolver[t].diff(rollCost[t], patSolver[t].scalProd(times[t], price)));
+        // 求解Pricing Problem
+        patSolver[t].solve();
+        report2(t);
+
+        if (patSolver[t].getObjValue() > -RC_EPS) {
+            return null;
+        }
+        double[] newPatt = patSolver[t].getValues(times[t]);
+        if (!cutPattern.contains(newPatt, t)) {
+            return newPatt;
+        }
+
+        /*
+         * 对偶值接近退化时，Pricing Problem可能重新产生已有的切割方案，重复加入只会使列生成原地打转：
+         * 1.先在solution pool中寻找检验数为负且不重复的次优方案
+         * 2.若没有，则降低重复方案中所用木材的价格后重新求解
+         */
+        duplicates.incrementAndGet();
+        double[] best = nextBestPattern(t, price);
+        if (best != null) {
+            return best;
+        }
+
+        double[] perturbed = price.clone();
+        for (int i = 0; i < perturbed.length; i++) {
+            if (newPatt[i] > 0.5) {
+                perturbed[i] -= PRICE_PERTURB * Math.abs(price[i]) + RC_EPS;
+            }
+        }
+        reducedCost[t].setExpr(patSolver[t].diff(rollCost[t], patSolver[t].scalProd(times[t], perturbed)));
+        patSolver[t].solve();
+        double[] patt = patSolver[t].getValues(times[t]);
+        // 检验数仍以原始价格计算
+        if (patternReducedCost(t, patt, price) <= -RC_EPS && !cutPattern.contains(patt, t)) {
+            return patt;
+        }
+        return nextBestPattern(t, price);
+    }
+
+    /**
+     * 在Pricing Problem的solution pool中寻找检验数最小、为负且不重复的切割方案 .<br>
+     * 
+     * @return 不存在时为null
+     * @throws IloException
+     */
+    double[] nextBestPattern(int t, double[] price) throws IloException {
+        double[] best = null;
+        double bestRc = -RC_EPS;
+        int nSolns = patSolver[t].getSolnPoolNsolns();
+        for (int s = 0; s < nSolns; s++) {
+            double[] patt = patSolver[t].getValues(times[t], s);
+            double rc = patternReducedCost(t, patt, price);
+            if (rc <= bestRc && !cutPattern.contains(patt, t)) {
+                best = patt;
+                bestRc = rc;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 第t类原料上切割方案pattern的检验数 .<br>
+     */
+    double patternReducedCost(int t, double[] pattern, double[] price) {
+        double rc = rollCost[t];
+        for (int i = 0; i < pattern.length; i++) {
+            rc -= price[i] * pattern[i];
+        }
+        return rc;
+    }
+
+    /**
+     * 依据第t类原料上的切割方案更新RMLP问题，包括：
+     * 1.目标值
+     * 2.约束
+     * 3.变量
+     * 采用按column添加的方式 .<br>
+     * 
+     * @throws IloException
+     */
+    void addColumn(int t, double[] newPatt) throws IloException {
+        // 存储切割方案
+        cutPattern.add(newPatt, t);
+
+        IloColumn column = rmlpSolver.column(rollsUsed, rollCost[t]);
+        for (int p = 0; p < newPatt.length; p++) {
+            // 更新约束
+            column = column.and(rmlpSolver.column(fill[p], newPatt[p]));
+        }
+        // 添加变量，并更新切割方案数组
+        cutPattern.add(rmlpSolver.numVar(column, 0., Double.MAX_VALUE));
+    }
+
+    /**
+     * 残差取整（residual rounding）得到整数解，代替对全部列求解MIP .<br>
+     * 每一轮将RMLP的解向下取整并计入整数解，从需求中扣除已满足的部分，
+     * 再以剩余需求为右端项重新进行列生成；若所有变量均小于1，
+     * 则将取值最大的切割方案向上取整为1（diving），保证每一轮都有进展。
+     * 
+     * @return 各切割方案使用的次数，下标与cutPattern一致
+     * @throws IloException
+     */
+    double[] residualRounding() throws IloException {
+        int nWdth = fill.length;
+        double[] residual = amount.clone();
+        double[] rounded = new double[cutPattern.getSize()];
+
+        int round = 0;
+        while (hasResidual(residual)) {
+            round++;
+            // 以剩余需求更新RMLP的需求约束，已满足的需求不再约束
+            for (int f = 0; f < nWdth; f++) {
+                fill[f].setLB(Math.max(residual[f], 0.0));
+            }
+            // 剩余需求下可能出现新的有利切割方案，重新进行列生成
+            columnGeneration();
+
+            int num = cutPattern.getSize();
+            if (rounded.length < num) {
+                rounded = Arrays.copyOf(rounded, num);
+            }
+            double[] x = rmlpSolver.getValues(cutPattern.array, 0, num);
+
+            // 向下取整
+            boolean progress = false;
+            for (int j = 0; j < num; j++) {
+                double k = Math.floor(x[j] + INT_EPS);
+                if (k >= 1.0) {
+                    useCutPattern(cutPattern.getPattern(j), k, residual);
+                    rounded[j] += k;
+                    progress = true;
+                }
+            }
+
+            // diving：没有变量能够向下取整时，将覆盖剩余需求且取值最大的切割方案向上取整
+            if (!progress) {
+                int best = -1;
+                for (int j = 0; j < num; j++) {
+                    if (coversResidual(cutPattern.getPattern(j), residual) && (best < 0 || x[j] > x[best])) {
+                        best = j;
+                    }
+                }
+                useCutPattern(cutPattern.getPattern(best), 1.0, residual);
+                rounded[best] += 1.0;
+            }
+
+            if (verbose) {
+                System.out.println("Rounding round " + round + ": residual demand = " + Arrays.toString(residual));
+            }
+        }
+
+        // 恢复原始需求
+        for (int f = 0; f < nWdth; f++) {
+            fill[f].setLB(amount[f]);
+        }
+        return rounded;
+    }
+
+    /**
+     * MIP polishing：以取整解为初始解，在限定时间内求解全部列上的MIP .<br>
+     * 
+     * @throws IloException
+     */
+    void polish() throws IloException {
+        int num = cutPattern.getSize();
+        IloNumVar[] cuts = Arrays.copyOf(cutPattern.array, num);
+        for (int i = 0; i < num; i++) {
+            // 将变量转化为int类型
+            rmlpSolver.add(rmlpSolver.conversion(cutPattern.getCutNum(i), IloNumVarType.Int));
+        }
+        rmlpSolver.addMIPStart(cuts, intCuts);
+        rmlpSolver.setParam(IloCplex.Param.TimeLimit, polishTime);
+
+        if (rmlpSolver.solve() && rmlpSolver.getObjValue() < intRolls - RC_EPS) {
+            report3();
+            double[] x = rmlpSolver.getValues(cuts);
+            for (int i = 0; i < num; i++) {
+                intCuts[i] = Math.round(x[i]);
+            }
+            intRolls = planCost(intCuts);
+        }
+        if (verbose) {
             System.out.println("Solution status: " + rmlpSolver.getStatus());
-            
-            System.out.println("Cut plan: ");
-            for (int i = 0; i < cutPattern.num; i++) {
-                System.out.print("Cut" + i + " \n= " + rmlpSolver.getValue(cutPattern.getCutNum(i)));
-                System.out.println("    Pattern" + " = " + Arrays.toString(cutPattern.getPattern(i)));
+            rmlpSolver.exportModel("model2.lp");
+        }
+    }
+
+    /**
+     * 使用k次切割方案pattern，并从剩余需求中扣除 .<br>
+     */
+    static void useCutPattern(double[] pattern, double k, double[] residual) {
+        for (int f = 0; f < residual.length; f++) {
+            residual[f] -= k * pattern[f];
+        }
+    }
+
+    static boolean coversResidual(double[] pattern, double[] residual) {
+        for (int f = 0; f < residual.length; f++) {
+            if (pattern[f] > 0.0 && residual[f] > RC_EPS) {
+                return true;
             }
-            
-            // 关闭求解器
-            rmlpSolver.end();
-            patSolver.end();
+        }
+        return false;
+    }
+
+    static boolean hasResidual(double[] residual) {
+        for (int f = 0; f < residual.length; f++) {
+            if (residual[f] > RC_EPS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 切割计划的总成本 .<br>
+     */
+    double planCost(double[] cuts) {
+        double total = 0.0;
+        for (int i = 0; i < cuts.length; i++) {
+            total += cuts[i] * rollCost[cutPattern.getStock(i)];
+        }
+        return total;
+    }
+
+    static void usage() {
+        System.out.println("usage:  CutStock [datafile] [-polish=<seconds>]");
+        System.out.println("         -polish=<seconds>  after residual rounding, solve the MIP over");
+        System.out.println("                            all generated patterns with this time limit");
+    }
+
+    public static void main(String[] args) {
+        String datafile = "./data/cutstock.dat";
+        double polishTime = 0.0;
+        try {
+            for (final String arg : args) {
+                if (arg.startsWith("-polish=")) {
+                    polishTime = Double.parseDouble(arg.substring(8));
+                } else if (arg.startsWith("-")) {
+                    System.out.println("Unknown argument " + arg);
+                    usage();
+                    return;
+                } else {
+                    datafile = arg;
+                }
+            }
+            CutStock cutStock = readData(datafile);
+            cutStock.polishTime = polishTime;
+            cutStock.solve();
+            cutStock.report4();
         } catch (IloException exc) {
             System.err.println("Concert exception '" + exc + "' caught");
         } catch (IOException exc) {
             System.err.println("Error reading file " + datafile + ": " + exc);
         } catch (InputDataReader.InputDataReaderException exc) {
             System.err.println(exc);
+        } catch (NumberFormatException exc) {
+            System.err.println("Bad polish time: " + exc);
+            usage();
         }
     }
 }
@@ -248,4 +765,11 @@ class CutStock {
  * 115
  * [25, 40, 50, 55, 70]
  * [50, 36, 24, 8, 30]
+ *
+ * Example Input file with several roll widths (the last array holds the
+ * cost of one roll of each width):
+ * [115, 130, 150]
+ * [25, 40, 50, 55, 70]
+ * [50, 36, 24, 8, 30]
+ * [1.0, 1.1, 1.25]
  */
@@ -0,0 +1,126 @@
+package examples;
+
+/* --------------------------------------------------------------------------
+ * File: CutStockBatch.java
+ * --------------------------------------------------------------------------
+ *
+ * CutStockBatch.java - Solve many independent cutting-stock orders in
+ *                      parallel, one CutStock instance per order
+ *
+ * Each order is read from its own data file (same format as CutStock).
+ * Orders are solved on a bounded pool of worker threads, and the cores are
+ * shared out across the orders.  The share of an order covers all of its
+ * IloCplex objects, including the pricing problems it solves at the same
+ * time (see CutStock.threads): with the default number of workers every
+ * order runs on a single thread and prices its roll widths one by one.
+ *
+ * Example:
+ *     java CutStockBatch -workers=4 ./data/order1.dat ./data/order2.dat
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class CutStockBatch {
+
+    /**
+     * 单个订单的求解任务，每个任务拥有独立的CutStock实例（以及其中的IloCplex） .<br>
+     */
+    static class Order implements Callable<CutStock> {
+        final String fileName;
+        final int threads;
+        final double polishTime;
+
+        Order(String fileName, int threads, double polishTime) {
+            this.fileName = fileName;
+            this.threads = threads;
+            this.polishTime = polishTime;
+        }
+
+        @Override
+        public CutStock call() throws Exception {
+            CutStock cutStock = CutStock.readData(fileName);
+            cutStock.threads = threads;
+            cutStock.verbose = false;
+            cutStock.polishTime = polishTime;
+            cutStock.solve();
+            return cutStock;
+        }
+    }
+
+    static void usage() {
+        System.out.println("usage:  CutStockBatch [-workers=<n>] [-polish=<seconds>] datafile...");
+        System.out.println("         -workers=<n>       number of orders solved concurrently,");
+        System.out.println("                            default is the number of cores");
+        System.out.println("         -polish=<seconds>  MIP polishing time limit for each order");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int workers = cores;
+        double polishTime = 0.0;
+        List<String> files = new ArrayList<String>();
+
+        for (final String arg : args) {
+            try {
+                if (arg.startsWith("-workers="))
+                    workers = Integer.parseInt(arg.substring(9));
+                else if (arg.startsWith("-polish="))
+                    polishTime = Double.parseDouble(arg.substring(8));
+                else if (arg.startsWith("-")) {
+                    System.out.println("Unknown argument " + arg);
+                    usage();
+                    return;
+                } else
+                    files.add(arg);
+            } catch (NumberFormatException e) {
+                System.out.println("Bad number in " + arg);
+                usage();
+                return;
+            }
+        }
+        if (files.isEmpty() || workers < 1 || !(polishTime >= 0.0)) {
+            usage();
+            return;
+        }
+
+        // 将核平均分配给同时求解的订单；每个订单的并行Pricing Problem也在这个份额之内
+        int threads = Math.max(1, cores / workers);
+
+        // 有界队列：队列满时由提交线程自己求解，避免一次性为所有订单建模
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * workers), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        long start = System.nanoTime();
+        List<Future<CutStock>> results = new ArrayList<Future<CutStock>>();
+        for (String file : files) {
+            results.add(pool.submit(new Order(file, threads, polishTime)));
+        }
+
+        int solved = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                CutStock cutStock = results.get(i).get();
+                solved++;
+                System.out.println(files.get(i) + ": " + cutStock.intRolls + " rolls, LP bound = "
+                        + cutStock.lpBound + ", gap = " + cutStock.gap() + "%, duplicate patterns = "
+                        + cutStock.duplicates.get());
+            } catch (ExecutionException exc) {
+                System.err.println(files.get(i) + ": " + exc.getCause());
+            }
+        }
+        pool.shutdown();
+        double minutes = (System.nanoTime() - start) / 6.0e10;
+
+        System.out.println();
+        System.out.println("Orders solved: " + solved + "/" + files.size() + " with " + workers + " workers x "
+                + threads + " threads");
+        System.out.println("Throughput:    " + solved / minutes + " orders per minute");
+    }
+}
@@ -22,10 +22,18 @@ import ilog.concert.*;
 public class Goalex2 {
     static class CutGoal extends IloCplex.Goal {
         double eps = 1.0e-6;
-        IloRange[] cut;
+        final CutTable table;
+        // Goals may run on several threads; each thread reuses its own
+        // buffers for the scan.
+        final ThreadLocal<CutTable.Work> work = new ThreadLocal<CutTable.Work>() {
+            @Override
+            protected CutTable.Work initialValue() {
+                return table.work();
+            }
+        };
 
-        CutGoal(IloRange[] cuts) {
-            cut = cuts;
+        CutGoal(IloRange[] cuts) throws IloException {
+            table = new CutTable(cuts);
         }
         
         // 可参考AdMIPex4.java
@@ -33,17 +41,19 @@ public class Goalex2 {
             if (isIntegerFeasible())
                 return null;
 
-            int num = cut.length;
+            // Goal.getValues() returns a new array on every call, so the
+            // point is read into this thread's buffer instead; a cut that
+            // is added once is retired from the table.
+            CutTable.Work w = work.get();
+            IloNumVar[] vars = table.vars();
+            for (int j = 0; j < vars.length; ++j)
+                w.x[j] = getValue(vars[j]);
+            int num = table.violated(w.x, w, eps);
             IloCplex.Goal goal = this;
             for (int i = 0; i < num; ++i) {
-                IloRange thecut = cut[i];
-                if (thecut != null) {
-                    double val = getValue(thecut.getExpr());
-                    if (thecut.getLB() > val + eps || val - eps > thecut.getUB()) {
-                        goal = cplex.and(cplex.globalCutGoal(thecut), goal);
-                        cut[i] = null;
-                    }
-                }
+                int k = w.violated[i];
+                goal = cplex.and(cplex.globalCutGoal(table.range(k)), goal);
+                table.retire(k);
             }
 
             if (goal == this)
@@ -0,0 +1,240 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: IncumbentSink.java
+ * --------------------------------------------------------------------------
+ *
+ * IncumbentSink.java - Capture new incumbents without blocking the solver
+ *
+ * A generic callback in Context.Id.GlobalProgress notices a new incumbent,
+ * copies its values into a recycled double[] with one bulk getIncumbent()
+ * call and passes the buffer to a consumer thread.  The consumer hands it
+ * to a Listener (write a file, send it on a socket, update an in-process
+ * model, ...) and then returns the buffer.  Buffers travel through two
+ * preallocated single-producer single-consumer rings, one for filled and
+ * one for free buffers, so at steady state capture allocates nothing and
+ * takes no locks shared with the consumer.
+ *
+ * If the consumer falls so far behind that no free buffer is left, the
+ * incumbent is dropped and counted; the final incumbent is always
+ * available from IloCplex after the solve.
+ *
+ * Usage:
+ *    IncumbentSink sink = new IncumbentSink(vars, 8,
+ *       new IncumbentSink.CsvListener(new BufferedWriter(...)));
+ *    cplex.use(sink, IloCplex.Callback.Context.Id.GlobalProgress);
+ *    cplex.solve();
+ *    sink.close();
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class IncumbentSink implements IloCplex.Callback.Function, Closeable {
+   // Called on the consumer thread; x is only valid during the call.
+   interface Listener extends Closeable {
+      void incumbent(double objective, double time, long nodes, double[] x)
+         throws IOException;
+   }
+
+   // One line per incumbent: objective, time, nodes, then all values.
+   static class CsvListener implements Listener {
+      final Writer out;
+
+      CsvListener(Writer out)
+      {
+         this.out = out;
+      }
+
+      public void incumbent(double objective, double time, long nodes,
+                            double[] x) throws IOException
+      {
+         out.write(objective + "," + time + "," + nodes);
+         for (double v : x) {
+            out.write(',');
+            out.write(Double.toString(v));
+         }
+         out.write('\n');
+         out.flush();
+      }
+
+      public void close() throws IOException
+      {
+         out.close();
+      }
+   }
+
+   // Binary records for a file or a socket: double objective, double
+   // time, long nodes, int n, double x[n].
+   static class StreamListener implements Listener {
+      final DataOutputStream out;
+
+      StreamListener(OutputStream out)
+      {
+         this.out = new DataOutputStream(new BufferedOutputStream(out));
+      }
+
+      public void incumbent(double objective, double time, long nodes,
+                            double[] x) throws IOException
+      {
+         out.writeDouble(objective);
+         out.writeDouble(time);
+         out.writeLong(nodes);
+         out.writeInt(x.length);
+         for (double v : x)
+            out.writeDouble(v);
+         out.flush();
+      }
+
+      public void close() throws IOException
+      {
+         out.close();
+      }
+   }
+
+   static class Snapshot {
+      double         objective;
+      double         time;
+      long           nodes;
+      final double[] x;
+
+      Snapshot(int n)
+      {
+         x = new double[n];
+      }
+   }
+
+   // Bounded single-producer single-consumer ring of references.
+   static class Ring {
+      final Snapshot[] slots;
+      final int        mask;
+      final AtomicLong head = new AtomicLong();   // next to take
+      final AtomicLong tail = new AtomicLong();   // next to put
+
+      Ring(int capacity)
+      {
+         slots = new Snapshot[capacity];
+         mask  = capacity - 1;
+      }
+
+      boolean offer(Snapshot s)
+      {
+         long t = tail.get();
+         if ( t - head.get() == slots.length )
+            return false;
+         slots[(int)(t & mask)] = s;
+         tail.lazySet(t + 1);
+         return true;
+      }
+
+      Snapshot poll()
+      {
+         long h = head.get();
+         if ( h == tail.get() )
+            return null;
+         int i = (int)(h & mask);
+         Snapshot s = slots[i];
+         slots[i] = null;
+         head.lazySet(h + 1);
+         return s;
+      }
+   }
+
+   final IloNumVar[] vars;
+   final Ring        free;
+   final Ring        filled;
+   final Listener    listener;
+   final Thread      consumer;
+   final AtomicLong  captured = new AtomicLong();
+   final AtomicLong  dropped  = new AtomicLong();
+   double            lastObjective = Double.NaN;
+   volatile boolean  closing;
+   volatile IOException failure;
+
+   // buffers is rounded up to a power of two
+   IncumbentSink(IloNumVar[] vars, int buffers, Listener listener)
+   {
+      int size = Integer.highestOneBit(Math.max(2, buffers - 1)) << 1;
+      this.vars     = vars;
+      this.listener = listener;
+      free   = new Ring(size);
+      filled = new Ring(size);
+      for (int b = 0; b < size; ++b)
+         free.offer(new Snapshot(vars.length));
+
+      consumer = new Thread("IncumbentSink") {
+            public void run() {
+               consume();
+            }
+         };
+      consumer.setDaemon(true);
+      consumer.start();
+   }
+
+   // GlobalProgress invocations are serialized by CPLEX; the lock only
+   // orders the producer side of the rings across solver threads.
+   public synchronized void invoke(IloCplex.Callback.Context context)
+      throws IloException
+   {
+      if ( !context.inGlobalProgress() ||
+           context.getIntInfo(IloCplex.Callback.Context.Info.Feasible) == 0 )
+         return;
+      double obj = context.getIncumbentObjective();
+      if ( obj == lastObjective )
+         return;
+      lastObjective = obj;
+
+      Snapshot s = free.poll();
+      if ( s == null ) {
+         dropped.incrementAndGet();
+         return;
+      }
+      s.objective = obj;
+      s.time      = context.getDoubleInfo(IloCplex.Callback.Context.Info.Time);
+      s.nodes     = context.getLongInfo(IloCplex.Callback.Context.Info.NodeCount);
+      context.getIncumbent(vars, s.x, 0, vars.length);
+      filled.offer(s);   // cannot fail, both rings hold all buffers
+      captured.incrementAndGet();
+   }
+
+   void consume()
+   {
+      try {
+         while ( true ) {
+            Snapshot s = filled.poll();
+            if ( s == null ) {
+               if ( closing && filled.head.get() == filled.tail.get() )
+                  break;
+               LockSupport.parkNanos(1000000L);
+               continue;
+            }
+            try {
+               listener.incumbent(s.objective, s.time, s.nodes, s.x);
+            }
+            finally {
+               free.offer(s);
+            }
+         }
+      }
+      catch (IOException e) {
+         failure = e;
+      }
+   }
+
+   // Deliver what has been captured, then close the listener.
+   public void close() throws IOException
+   {
+      closing = true;
+      try {
+         consumer.join();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      listener.close();
+      if ( failure != null )
+         throw failure;
+   }
+}
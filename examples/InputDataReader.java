@@ -142,6 +142,19 @@ public class InputDataReader {
       return res;
    }
 
+   // Read either a single number or an array of numbers; a single number
+   // is returned as an array of length one.
+   double[] readDoubleOrDoubleArray() throws InputDataReaderException,
+                                             IOException {
+      int ntType = _tokenizer.nextToken();
+      _tokenizer.pushBack();
+
+      if ( ntType == StreamTokenizer.TT_NUMBER )
+         return new double[] {readDouble()};
+
+      return readDoubleArray();
+   }
+
    int[] readIntArray() throws InputDataReaderException,
                                IOException {
       int ntType = _tokenizer.nextToken(); // Read the '['
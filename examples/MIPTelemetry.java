@@ -0,0 +1,198 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: MIPTelemetry.java
+ * --------------------------------------------------------------------------
+ *
+ * MIPTelemetry.java - Low-overhead MIP progress recording from a generic
+ *                     callback
+ *
+ * The callback runs in Context.Id.GlobalProgress and only copies a few
+ * numbers (time, nodes, remaining nodes, best bound, incumbent, gap) into
+ * a preallocated ring buffer of primitive arrays: no I/O, no strings and
+ * no allocation on the solver thread.  A background thread drains the
+ * ring and hands every record to a Sink, by default a CSV file.
+ *
+ * CPLEX invokes GlobalProgress callbacks one at a time, so the ring has a
+ * single producer and a single consumer; record() still takes an
+ * uncontended lock so its writes are ordered across solver threads.
+ * CplexLog feeds the same ring with records parsed from the node log.  The
+ * ring never blocks the solver: if the drain thread falls behind by a
+ * whole ring the record is dropped and counted instead.
+ *
+ * Usage:
+ *    MIPTelemetry t = new MIPTelemetry(4096, new MIPTelemetry.CsvSink(w));
+ *    cplex.use(t, IloCplex.Callback.Context.Id.GlobalProgress);
+ *    cplex.solve();
+ *    t.close();   // drains what is left and closes the sink
+ */
+
+import ilog.cplex.*;
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class MIPTelemetry implements IloCplex.Callback.Function, Closeable {
+   // Receives the drained records on the drain thread.
+   interface Sink extends Closeable {
+      void record(double time, long nodes, long nodesLeft, double bound,
+                  double incumbent, double gap) throws IOException;
+      void flush() throws IOException;
+   }
+
+   // Writes one CSV line per record.
+   static class CsvSink implements Sink {
+      final Writer out;
+
+      CsvSink(Writer out) throws IOException
+      {
+         this.out = out;
+         out.write("time,nodes,nodesLeft,bound,incumbent,gap\n");
+      }
+
+      public void record(double time, long nodes, long nodesLeft,
+                         double bound, double incumbent, double gap)
+         throws IOException
+      {
+         out.write(time + "," + nodes + "," + nodesLeft + "," + bound + ","
+                   + incumbent + "," + gap + "\n");
+      }
+
+      public void flush() throws IOException
+      {
+         out.flush();
+      }
+
+      public void close() throws IOException
+      {
+         out.close();
+      }
+   }
+
+   final int     mask;
+   // one slot per record, parallel arrays
+   final double[] time, bound, incumbent, gap;
+   final long[]   nodes, nodesLeft;
+   // records written (producer) and drained (consumer) so far
+   final AtomicLong      written  = new AtomicLong();
+   final AtomicLong      drained  = new AtomicLong();
+   final AtomicLong      dropped  = new AtomicLong();
+
+   final Sink            sink;
+   final Thread          drainer;
+   volatile boolean      closing;
+   volatile IOException  failure;
+
+   // capacity is rounded up to a power of two.
+   MIPTelemetry(int capacity, Sink sink)
+   {
+      int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+      mask      = size - 1;
+      time      = new double[size];
+      bound     = new double[size];
+      incumbent = new double[size];
+      gap       = new double[size];
+      nodes     = new long[size];
+      nodesLeft = new long[size];
+      this.sink = sink;
+
+      drainer = new Thread("MIPTelemetry") {
+            public void run() {
+               drain();
+            }
+         };
+      drainer.setDaemon(true);
+      drainer.start();
+   }
+
+   public void invoke(IloCplex.Callback.Context context)
+      throws ilog.concert.IloException
+   {
+      if ( !context.inGlobalProgress() )
+         return;
+
+      boolean feasible =
+         context.getIntInfo(IloCplex.Callback.Context.Info.Feasible) != 0;
+      double inc = feasible ? context.getIncumbentObjective() : Double.NaN;
+      double bnd =
+         context.getDoubleInfo(IloCplex.Callback.Context.Info.BestBound);
+      record(context.getDoubleInfo(IloCplex.Callback.Context.Info.Time),
+             context.getLongInfo(IloCplex.Callback.Context.Info.NodeCount),
+             context.getLongInfo(IloCplex.Callback.Context.Info.NodesLeft),
+             bnd, inc,
+             feasible ? Math.abs(inc - bnd) / (1e-10 + Math.abs(inc))
+                      : Double.POSITIVE_INFINITY);
+   }
+
+   // Producer side of the ring, also fed by CplexLog from the node log.
+   synchronized void record(double t, long n, long left, double bnd,
+                            double inc, double g)
+   {
+      long seq = written.get();
+      if ( seq - drained.get() > mask ) {
+         // the drain thread is a whole ring behind; never wait for it
+         dropped.incrementAndGet();
+         return;
+      }
+      int i = (int)(seq & mask);
+      time[i]      = t;
+      nodes[i]     = n;
+      nodesLeft[i] = left;
+      bound[i]     = bnd;
+      incumbent[i] = inc;
+      gap[i]       = g;
+      written.lazySet(seq + 1);
+   }
+
+   // Drain thread: hand records to the sink in the order they were
+   // written, flushing it whenever the ring runs empty.
+   void drain()
+   {
+      long    next  = 0;
+      boolean dirty = false;
+      try {
+         while ( true ) {
+            long end = written.get();
+            if ( next == end ) {
+               if ( closing && next == written.get() )
+                  break;
+               if ( dirty )
+                  sink.flush();
+               dirty = false;
+               LockSupport.parkNanos(1000000L);
+               continue;
+            }
+            dirty = true;
+            for (; next < end; ++next) {
+               int i = (int)(next & mask);
+               sink.record(time[i], nodes[i], nodesLeft[i], bound[i],
+                           incumbent[i], gap[i]);
+               drained.lazySet(next + 1);
+            }
+         }
+         sink.flush();
+      }
+      catch (IOException e) {
+         failure = e;
+      }
+   }
+
+   long droppedCount()
+   {
+      return dropped.get();
+   }
+
+   // Stop after draining everything recorded so far and close the sink.
+   public void close() throws IOException
+   {
+      closing = true;
+      try {
+         drainer.join();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      sink.close();
+      if ( failure != null )
+         throw failure;
+   }
+}
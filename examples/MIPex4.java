@@ -20,6 +20,11 @@ package examples;
  *                     where option is one of
  *                        t to use the time-limit-gap callback
  *                        l to use the logging callback
+ *                        g to record progress with MIPTelemetry and
+ *                          incumbents with IncumbentSink
+ *                        p to parse the CPLEX log into <filename>.progress.csv
+ *                        s to use a StoppingPolicy
+ *                        j to publish live statistics with a SolverMonitor
  *                        a to use the aborter
  *
  * Example:
@@ -35,6 +40,11 @@ public class MIPex4 {
       System.out.println("usage:  MIPex4 <filename> <option>");
       System.out.println("         t  to use the time-limit-gap callback");
       System.out.println("         l  to use the logging callback");
+      System.out.println("         g  to record progress to <filename>.progress.csv");
+      System.out.println("            and incumbents to <filename>.incumbents.csv");
+      System.out.println("         p  to parse the log into <filename>.progress.csv");
+      System.out.println("         s  to use a stopping policy");
+      System.out.println("         j  to publish statistics over JMX");
       System.out.println("         a  to use the aborter");
    }
 
@@ -132,10 +142,20 @@ public class MIPex4 {
       }
       try {
          boolean useLoggingCallback = false;
+         boolean useTelemetry = false;
+         boolean useLogParser = false;
+         boolean useStoppingPolicy = false;
+         boolean useMonitor = false;
          boolean useTimeLimitCallback = false;
          boolean useAborter = false;
 
          IloCplex.Aborter myAborter;
+         MIPTelemetry     telemetry = null;
+         IncumbentSink    incumbents = null;
+         CplexLog         log = null;
+         CplexLog.Summary summary = null;
+         StoppingPolicy   policy = null;
+         SolverMonitor    monitor = null;
 
          IloCplex cplex = new IloCplex();
 
@@ -146,6 +166,18 @@ public class MIPex4 {
          case 'l':
             useLoggingCallback = true;
             break;
+         case 'g':
+            useTelemetry = true;
+            break;
+         case 'p':
+            useLogParser = true;
+            break;
+         case 's':
+            useStoppingPolicy = true;
+            break;
+         case 'j':
+            useMonitor = true;
+            break;
          case 'a':
             useAborter = true;
             break;
@@ -171,6 +203,57 @@ public class MIPex4 {
             // Turn off CPLEX logging
             cplex.setParam(IloCplex.Param.MIP.Display, 0);
          }
+         else if ( useTelemetry ) {
+            // Same node limit as for the logging callback.  Progress and
+            // incumbents are written by background threads, the callback
+            // only copies numbers into preallocated buffers.
+            cplex.setParam(IloCplex.Param.MIP.Limits.Nodes, 5000);
+            telemetry = new MIPTelemetry(4096, new MIPTelemetry.CsvSink(
+               new java.io.BufferedWriter(
+                  new java.io.FileWriter(args[0] + ".progress.csv"))));
+            incumbents = new IncumbentSink(lp.getNumVars(), 8,
+               new IncumbentSink.CsvListener(new java.io.BufferedWriter(
+                  new java.io.FileWriter(args[0] + ".incumbents.csv"))));
+            final MIPTelemetry  progress = telemetry;
+            final IncumbentSink capture  = incumbents;
+            cplex.use(new IloCplex.Callback.Function() {
+                  public void invoke(IloCplex.Callback.Context context)
+                     throws IloException {
+                     progress.invoke(context);
+                     capture.invoke(context);
+                  }
+               }, IloCplex.Callback.Context.Id.GlobalProgress);
+            cplex.setParam(IloCplex.Param.MIP.Display, 0);
+         }
+         else if ( useLogParser ) {
+            // No callback at all: the node log is parsed as it is written
+            // and the text itself is dropped.
+            cplex.setParam(IloCplex.Param.MIP.Limits.Nodes, 5000);
+            telemetry = new MIPTelemetry(4096, new MIPTelemetry.CsvSink(
+               new java.io.BufferedWriter(
+                  new java.io.FileWriter(args[0] + ".progress.csv"))));
+            summary = new CplexLog.Summary();
+            log = new CplexLog(telemetry, summary, null);
+            cplex.setOut(log);
+         }
+         else if ( useStoppingPolicy ) {
+            // The rule of the time-limit-gap callback (10% after one
+            // second), tightened to 1% for the first second, plus limits
+            // on idle search at the tail.
+            policy = new StoppingPolicy(StoppingPolicy.anyOf(
+               StoppingPolicy.gapCurve(new double[] {0.0, 1.0},
+                                       new double[] {0.01, 0.10}),
+               StoppingPolicy.noImprovement(30.0),
+               StoppingPolicy.boundStall(60.0, 1e-6),
+               StoppingPolicy.nodeBudget(1000000)));
+            cplex.use(policy, IloCplex.Callback.Context.Id.GlobalProgress);
+         }
+         else if ( useMonitor ) {
+            // Watch examples:type=SolverMonitor,name="<filename>" with
+            // jconsole while the solve runs; its abort operation stops it.
+            monitor = SolverMonitor.attach(cplex, null, 0);
+            monitor.register(args[0]);
+         }
          else if ( useTimeLimitCallback ) {
             cplex.use(new TimeLimitCallback(cplex, false, cplex.getCplexTime(), 1.0, 10.0));
          }
@@ -189,14 +272,49 @@ public class MIPex4 {
             myAborter.abort();
          }
 
+         if ( log != null )
+            log.reset();
          cplex.solve();
          System.out.println("Solution status = " + cplex.getStatus());
          System.out.println("CPLEX status = " + cplex.getCplexStatus());
 
+         if ( policy != null && policy.reason() != null )
+            System.out.println("Stopped early: " + policy.reason());
+
+         if ( monitor != null ) {
+            System.out.println("Monitor: " + monitor);
+            monitor.close();
+         }
+
+         if ( log != null ) {
+            log.close();
+            System.out.println(log.nodeLines + " node log lines parsed, "
+                               + summary);
+         }
+
+         if ( telemetry != null ) {
+            telemetry.close();
+            System.out.println("Progress written to " + args[0]
+                               + ".progress.csv, " + telemetry.droppedCount()
+                               + " records dropped");
+         }
+         if ( incumbents != null ) {
+            incumbents.close();
+            System.out.println(incumbents.captured.get() + " incumbents written to "
+                               + args[0] + ".incumbents.csv, "
+                               + incumbents.dropped.get() + " dropped");
+         }
+
          cplex.end();
       }
       catch (IloException e) {
          System.err.println("Concert exception caught: " + e);
       }
+      catch (java.io.IOException e) {
+         System.err.println("I/O exception caught: " + e);
+      }
+      catch (javax.management.JMException e) {
+         System.err.println("JMX exception caught: " + e);
+      }
    }
 }
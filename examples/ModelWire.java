@@ -0,0 +1,884 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: ModelWire.java
+ * --------------------------------------------------------------------------
+ *
+ * ModelWire.java - Compact columnar wire format for linear models, used by
+ *                  CplexServer instead of Java serialization
+ *
+ * A model is sent as primitive arrays: column bounds, types and objective,
+ * row bounds, and the constraint matrix in CSR form (row starts, column
+ * indices, values).  Names are optional.  The arrays are written with bulk
+ * puts into a direct ByteBuffer and read back with bulk gets, and the
+ * server loads them with a handful of IloLPMatrix calls instead of
+ * rebuilding a Concert object graph with setModel.
+ *
+ * Payload layout (little endian):
+ *    int     magic, int version
+ *    int     ncols, int nrows, int nnz
+ *    byte    sense (0 = minimize, 1 = maximize), byte flags (1 = names)
+ *    double  objective constant
+ *    double  lb[ncols], ub[ncols], obj[ncols]
+ *    byte    type[ncols] (0 = Float, 1 = Int, 2 = Bool)
+ *    double  rlb[nrows], rub[nrows]
+ *    int     rowStart[nrows + 1], colIndex[nnz]
+ *    double  value[nnz]
+ *    names   (optional) ncols + nrows strings as int length + UTF-8 bytes,
+ *            length -1 for a missing name
+ *
+ * A model is identified by its fingerprint, a 64-bit hash of everything
+ * but the names.  CplexServer keeps solved models by fingerprint, and a
+ * client can then send a ModelWire.Delta (bound changes, objective
+ * coefficients, added rows) against that fingerprint instead of the whole
+ * model again.
+ *
+ * Running this class benchmarks encoding and decoding against the Java
+ * serialization of CplexServer.ModelData:
+ *     java ModelWire [ncols] [nrows] [nnzPerRow] [repeats]
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+public class ModelWire {
+   static final int MAGIC   = 0x43504c58;   // "CPLX"
+   static final int VERSION = 2;
+
+   static final byte FLOAT = 0;
+   static final byte INT   = 1;
+   static final byte BOOL  = 2;
+
+   int      ncols;
+   int      nrows;
+   boolean  maximize;
+   double   objConstant;
+   double[] lb;
+   double[] ub;
+   double[] obj;
+   byte[]   type;
+   double[] rlb;
+   double[] rub;
+   int[]    rowStart;
+   int[]    colIndex;
+   double[] value;
+   String[] colNames;   // optional, null if names are not sent
+   String[] rowNames;
+
+   ModelWire(int ncols, int nrows, int nnz)
+   {
+      this.ncols = ncols;
+      this.nrows = nrows;
+      lb       = new double[ncols];
+      ub       = new double[ncols];
+      obj      = new double[ncols];
+      type     = new byte[ncols];
+      rlb      = new double[nrows];
+      rub      = new double[nrows];
+      rowStart = new int[nrows + 1];
+      colIndex = new int[nnz];
+      value    = new double[nnz];
+   }
+
+   int nnz()
+   {
+      return rowStart[nrows];
+   }
+
+   // 64-bit hash over 8-byte words.  Every word goes through the
+   // splitmix64 finalizer together with the hash so far, so a change in any
+   // bit of a word reaches all bits of the hash; a plain multiply would
+   // only carry differences upwards and let sign flips cancel out.  The
+   // fingerprint and the checksum are two such hashes from different
+   // seeds.
+
+   static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+   static final long CHECKSUM_SEED    = 0x9e3779b97f4a7c15L;
+
+   static long mix(long h, long v)
+   {
+      long z = h ^ v;
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return (z ^ (z >>> 31)) + 0x9e3779b97f4a7c15L;
+   }
+
+   static long mix(long h, double[] a, int n)
+   {
+      h = mix(h, n);
+      for (int i = 0; i < n; ++i)
+         h = mix(h, Double.doubleToLongBits(a[i]));
+      return h;
+   }
+
+   static long mix(long h, int[] a, int n)
+   {
+      h = mix(h, n);
+      for (int i = 0; i < n; ++i)
+         h = mix(h, a[i]);
+      return h;
+   }
+
+   // Fingerprint of the model content; names do not take part.
+   long fingerprint()
+   {
+      return hash(FINGERPRINT_SEED);
+   }
+
+   // Second hash of the content, independent of the fingerprint.  The
+   // server checks it before reusing a model cached under a fingerprint.
+   long checksum()
+   {
+      return hash(CHECKSUM_SEED);
+   }
+
+   long hash(long seed)
+   {
+      long h = mix(seed, MAGIC);
+      h = mix(h, maximize ? 1 : 0);
+      h = mix(h, Double.doubleToLongBits(objConstant));
+      h = mix(h, lb, ncols);
+      h = mix(h, ub, ncols);
+      h = mix(h, obj, ncols);
+      h = mix(h, ncols);
+      for (int j = 0; j < ncols; ++j)
+         h = mix(h, type[j]);
+      h = mix(h, rlb, nrows);
+      h = mix(h, rub, nrows);
+      h = mix(h, rowStart, nrows + 1);
+      h = mix(h, colIndex, nnz());
+      h = mix(h, value, nnz());
+      return h;
+   }
+
+   // Convert a Concert model holding linear ranges and one objective over
+   // the variables in vars.  Expression constants are moved into the row
+   // bounds and the objective constant, and repeated terms of a variable
+   // in one expression are summed.
+   static ModelWire fromModel(IloModel model, IloNumVar[] vars, boolean names)
+      throws IloException
+   {
+      int ncols = vars.length;
+      Map<IloNumVar, Integer> index = new HashMap<IloNumVar, Integer>();
+      for (int j = 0; j < ncols; ++j)
+         index.put(vars[j], j);
+
+      // first pass: count rows and nonzeros
+      int nrows = 0;
+      int nnz   = 0;
+      for (Iterator<?> it = model.iterator(); it.hasNext(); ) {
+         Object o = it.next();
+         if ( o instanceof IloRange ) {
+            ++nrows;
+            IloLinearNumExpr expr = (IloLinearNumExpr)((IloRange)o).getExpr();
+            for (IloLinearNumExprIterator t = expr.linearIterator(); t.hasNext(); ) {
+               t.nextNumVar();
+               ++nnz;
+            }
+         }
+      }
+
+      ModelWire w = new ModelWire(ncols, nrows, nnz);
+      if ( names ) {
+         w.colNames = new String[ncols];
+         w.rowNames = new String[nrows];
+      }
+      for (int j = 0; j < ncols; ++j) {
+         w.lb[j]   = vars[j].getLB();
+         w.ub[j]   = vars[j].getUB();
+         w.type[j] = typeCode(vars[j].getType());
+         if ( names )
+            w.colNames[j] = vars[j].getName();
+      }
+
+      // second pass: fill rows and objective; at[j] is the position of
+      // column j in the current row, -1 if it has no entry yet
+      int[] at = new int[ncols];
+      Arrays.fill(at, -1);
+      int i = 0;
+      int k = 0;
+      for (Iterator<?> it = model.iterator(); it.hasNext(); ) {
+         Object o = it.next();
+         if ( o instanceof IloRange ) {
+            IloRange rng = (IloRange)o;
+            IloLinearNumExpr expr = (IloLinearNumExpr)rng.getExpr();
+            double c = expr.getConstant();
+            w.rlb[i] = rng.getLB() - c;
+            w.rub[i] = rng.getUB() - c;
+            if ( names )
+               w.rowNames[i] = rng.getName();
+            for (IloLinearNumExprIterator t = expr.linearIterator(); t.hasNext(); ) {
+               int j = column(index, t.nextNumVar());
+               if ( at[j] >= 0 ) {
+                  w.value[at[j]] += t.getValue();
+                  continue;
+               }
+               at[j]         = k;
+               w.colIndex[k] = j;
+               w.value[k]    = t.getValue();
+               ++k;
+            }
+            for (int p = w.rowStart[i]; p < k; ++p)
+               at[w.colIndex[p]] = -1;
+            w.rowStart[++i] = k;
+         }
+         else if ( o instanceof IloObjective ) {
+            IloObjective objective = (IloObjective)o;
+            w.maximize = objective.getSense().equals(IloObjectiveSense.Maximize);
+            IloLinearNumExpr expr = (IloLinearNumExpr)objective.getExpr();
+            w.objConstant = expr.getConstant();
+            for (IloLinearNumExprIterator t = expr.linearIterator(); t.hasNext(); ) {
+               int j = column(index, t.nextNumVar());
+               w.obj[j] += t.getValue();
+            }
+         }
+      }
+      if ( k < nnz ) {
+         // merged terms
+         w.colIndex = Arrays.copyOf(w.colIndex, k);
+         w.value    = Arrays.copyOf(w.value, k);
+      }
+      return w;
+   }
+
+   static int column(Map<IloNumVar, Integer> index, IloNumVar v)
+      throws IloException
+   {
+      Integer j = index.get(v);
+      if ( j == null )
+         throw new IloException("variable " + v.getName() + " not in vars");
+      return j;
+   }
+
+   static byte typeCode(IloNumVarType t)
+   {
+      if ( t.equals(IloNumVarType.Bool) )
+         return BOOL;
+      if ( t.equals(IloNumVarType.Int) )
+         return INT;
+      return FLOAT;
+   }
+
+   static IloNumVarType varType(byte code)
+   {
+      switch ( code ) {
+      case BOOL: return IloNumVarType.Bool;
+      case INT:  return IloNumVarType.Int;
+      default:   return IloNumVarType.Float;
+      }
+   }
+
+   // Load the model into an (empty) IloCplex with bulk IloLPMatrix calls.
+   // Returns the columns in wire order.
+   IloNumVar[] load(IloCplex cplex) throws IloException
+   {
+      IloNumVarType[] types = new IloNumVarType[ncols];
+      for (int j = 0; j < ncols; ++j)
+         types[j] = varType(type[j]);
+      IloNumVar[] x = cplex.numVarArray(ncols, lb, ub, types, colNames);
+
+      IloLPMatrix lp = cplex.addLPMatrix();
+      lp.addCols(x);
+
+      int[][]    ind = new int[nrows][];
+      double[][] val = new double[nrows][];
+      for (int i = 0; i < nrows; ++i) {
+         int from = rowStart[i];
+         int len  = rowStart[i + 1] - from;
+         ind[i] = new int[len];
+         val[i] = new double[len];
+         System.arraycopy(colIndex, from, ind[i], 0, len);
+         System.arraycopy(value,    from, val[i], 0, len);
+      }
+      lp.addRows(rlb, rub, ind, val);
+      if ( rowNames != null ) {
+         IloRange[] rows = lp.getRanges();
+         for (int i = 0; i < nrows; ++i)
+            rows[i].setName(rowNames[i]);
+      }
+
+      IloLinearNumExpr objective = cplex.scalProd(obj, x);
+      objective.setConstant(objConstant);
+      cplex.addObjective(maximize ? IloObjectiveSense.Maximize
+                                  : IloObjectiveSense.Minimize,
+                         objective);
+      return x;
+   }
+
+   int encodedSize()
+   {
+      int nnz  = nnz();
+      int size = 4 * 5 + 2 + 8
+               + 8 * 3 * ncols + ncols
+               + 8 * 2 * nrows
+               + 4 * (nrows + 1) + 4 * nnz + 8 * nnz;
+      if ( colNames != null ) {
+         for (String s : colNames)
+            size += 4 + utf8Length(s);
+         for (String s : rowNames)
+            size += 4 + utf8Length(s);
+      }
+      return size;
+   }
+
+   // Write the model at the current position of dst.
+   void encode(ByteBuffer dst)
+   {
+      ByteOrder order = dst.order();
+      dst.order(ByteOrder.LITTLE_ENDIAN);
+      dst.putInt(MAGIC).putInt(VERSION);
+      dst.putInt(ncols).putInt(nrows).putInt(nnz());
+      dst.put((byte)(maximize ? 1 : 0));
+      dst.put((byte)(colNames != null ? 1 : 0));
+      dst.putDouble(objConstant);
+      putDoubles(dst, lb, ncols);
+      putDoubles(dst, ub, ncols);
+      putDoubles(dst, obj, ncols);
+      dst.put(type, 0, ncols);
+      putDoubles(dst, rlb, nrows);
+      putDoubles(dst, rub, nrows);
+      putInts(dst, rowStart, nrows + 1);
+      putInts(dst, colIndex, nnz());
+      putDoubles(dst, value, nnz());
+      if ( colNames != null ) {
+         for (String s : colNames)
+            putString(dst, s);
+         for (String s : rowNames)
+            putString(dst, s);
+      }
+      dst.order(order);
+   }
+
+   // Read a model starting at the current position of src.
+   static ModelWire decode(ByteBuffer src) throws IOException
+   {
+      ByteOrder order = src.order();
+      src.order(ByteOrder.LITTLE_ENDIAN);
+      if ( src.getInt() != MAGIC || src.getInt() != VERSION )
+         throw new IOException("not a ModelWire payload");
+      int ncols = src.getInt();
+      int nrows = src.getInt();
+      int nnz   = src.getInt();
+      boolean maximize = src.get() != 0;
+      boolean names    = src.get() != 0;
+      double  constant = src.getDouble();
+      // the counts come from the client: make sure the arrays are really
+      // there before allocating them
+      long need = (8L * 3 + 1) * ncols + (8L * 2 + 4) * nrows + 4 + 12L * nnz;
+      if ( ncols < 0 || nrows < 0 || nnz < 0 || need > src.remaining() )
+         throw new IOException("bad model size " + ncols + " x " + nrows
+                               + ", " + nnz + " nonzeros");
+      ModelWire w = new ModelWire(ncols, nrows, nnz);
+      w.maximize    = maximize;
+      w.objConstant = constant;
+      getDoubles(src, w.lb);
+      getDoubles(src, w.ub);
+      getDoubles(src, w.obj);
+      src.get(w.type);
+      getDoubles(src, w.rlb);
+      getDoubles(src, w.rub);
+      getInts(src, w.rowStart);
+      getInts(src, w.colIndex);
+      getDoubles(src, w.value);
+      for (int j = 0; j < ncols; ++j) {
+         if ( w.type[j] < 0 || w.type[j] > 2 )
+            throw new IOException("bad type " + w.type[j] + " of column " + j);
+      }
+      checkRows(w.rowStart, nrows, w.colIndex, nnz, ncols);
+      if ( names ) {
+         w.colNames = new String[ncols];
+         w.rowNames = new String[nrows];
+         for (int j = 0; j < ncols; ++j)
+            w.colNames[j] = getString(src);
+         for (int i = 0; i < nrows; ++i)
+            w.rowNames[i] = getString(src);
+      }
+      src.order(order);
+      return w;
+   }
+
+   // Check that the CSR rows rowStart/colIndex of nrows rows and nnz
+   // nonzeros are well formed and refer to columns below ncols.
+   static void checkRows(int[] rowStart, int nrows, int[] colIndex, int nnz,
+                         int ncols) throws IOException
+   {
+      if ( rowStart[0] != 0 || rowStart[nrows] != nnz )
+         throw new IOException("row starts do not span the " + nnz
+                               + " nonzeros");
+      for (int i = 0; i < nrows; ++i) {
+         if ( rowStart[i + 1] < rowStart[i] )
+            throw new IOException("row starts decrease at row " + i);
+      }
+      for (int k = 0; k < nnz; ++k) {
+         if ( colIndex[k] < 0 || colIndex[k] >= ncols )
+            throw new IOException("column index " + colIndex[k]
+                                  + " out of range");
+      }
+   }
+
+   // Check that count entries of width bytes each are left in src.
+   static void checkCount(ByteBuffer src, int count, int width, String what)
+      throws IOException
+   {
+      if ( count < 0 || count > src.remaining() / width )
+         throw new IOException("bad " + what + " count " + count);
+   }
+
+   // Bulk helpers: view the buffer as an int/double buffer for one copy
+   // and then advance the byte position.
+
+   static void putDoubles(ByteBuffer dst, double[] a, int n)
+   {
+      dst.asDoubleBuffer().put(a, 0, n);
+      dst.position(dst.position() + 8 * n);
+   }
+
+   static void getDoubles(ByteBuffer src, double[] a)
+   {
+      src.asDoubleBuffer().get(a);
+      src.position(src.position() + 8 * a.length);
+   }
+
+   static void putInts(ByteBuffer dst, int[] a, int n)
+   {
+      dst.asIntBuffer().put(a, 0, n);
+      dst.position(dst.position() + 4 * n);
+   }
+
+   static void getInts(ByteBuffer src, int[] a)
+   {
+      src.asIntBuffer().get(a);
+      src.position(src.position() + 4 * a.length);
+   }
+
+   static int utf8Length(String s)
+   {
+      return s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length;
+   }
+
+   static void putString(ByteBuffer dst, String s)
+   {
+      if ( s == null ) {
+         dst.putInt(-1);
+         return;
+      }
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      dst.putInt(bytes.length);
+      dst.put(bytes);
+   }
+
+   static String getString(ByteBuffer src) throws IOException
+   {
+      int len = src.getInt();
+      if ( len < 0 )
+         return null;
+      checkCount(src, len, 1, "string byte");
+      byte[] bytes = new byte[len];
+      src.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+
+   // Changes to a model that is already cached on the server: new bounds
+   // for some columns, new objective coefficients for some columns, and
+   // additional rows in CSR form over the existing columns.
+   static class Delta {
+      int[]    boundCols = new int[0];
+      double[] newLb     = new double[0];
+      double[] newUb     = new double[0];
+      int[]    objCols   = new int[0];
+      double[] newObj    = new double[0];
+      int      nrows;
+      double[] rlb       = new double[0];
+      double[] rub       = new double[0];
+      int[]    rowStart  = new int[] {0};
+      int[]    colIndex  = new int[0];
+      double[] value     = new double[0];
+
+      int nnz()
+      {
+         return rowStart[nrows];
+      }
+
+      // Fingerprint of the model obtained by applying this delta to the
+      // model with fingerprint base; with the base's checksum, the
+      // checksum of that model.
+      long fingerprint(long base)
+      {
+         return hash(base);
+      }
+
+      long hash(long base)
+      {
+         long h = mix(base, 0x44454c54L);   // "DELT"
+         h = mix(h, boundCols, boundCols.length);
+         h = mix(h, newLb, newLb.length);
+         h = mix(h, newUb, newUb.length);
+         h = mix(h, objCols, objCols.length);
+         h = mix(h, newObj, newObj.length);
+         h = mix(h, rlb, nrows);
+         h = mix(h, rub, nrows);
+         h = mix(h, rowStart, nrows + 1);
+         h = mix(h, colIndex, nnz());
+         h = mix(h, value, nnz());
+         return h;
+      }
+
+      // What apply() replaced, so that the delta can be taken back.
+      static class Undo {
+         int[]    boundCols;
+         double[] oldLb;
+         double[] oldUb;
+         int[]    objCols;
+         double[] oldObj;
+         int      firstRow;
+         int      nrows;
+         int      nnz;
+
+         // Restore the model as it was before apply(); obj is the dense
+         // objective passed to apply().
+         void revert(IloCplex cplex, IloNumVar[] vars, double[] obj)
+            throws IloException
+         {
+            if ( nrows > 0 ) {
+               IloLPMatrix lp = (IloLPMatrix)cplex.LPMatrixIterator().next();
+               lp.removeRows(firstRow, nrows);
+            }
+
+            // backwards, so that for a column listed twice the value from
+            // before the delta wins
+            for (int k = boundCols.length - 1; k >= 0; --k) {
+               vars[boundCols[k]].setLB(oldLb[k]);
+               vars[boundCols[k]].setUB(oldUb[k]);
+            }
+
+            if ( objCols.length > 0 ) {
+               for (int k = objCols.length - 1; k >= 0; --k)
+                  obj[objCols[k]] = oldObj[k];
+               IloNumVar[] x   = new IloNumVar[objCols.length];
+               double[]    val = new double[objCols.length];
+               for (int k = 0; k < objCols.length; ++k) {
+                  x[k]   = vars[objCols[k]];
+                  val[k] = obj[objCols[k]];
+               }
+               cplex.setLinearCoefs(cplex.getObjective(), val, x);
+            }
+         }
+      }
+
+      // Apply the changes in place to a model loaded by ModelWire.load.
+      // obj is the dense objective of the model and is updated as well.
+      // Returns what is needed to take the changes back.
+      Undo apply(IloCplex cplex, IloNumVar[] vars, double[] obj)
+         throws IloException
+      {
+         Undo undo = new Undo();
+         undo.boundCols = boundCols.clone();
+         undo.oldLb     = new double[boundCols.length];
+         undo.oldUb     = new double[boundCols.length];
+         for (int k = 0; k < boundCols.length; ++k) {
+            IloNumVar v = vars[boundCols[k]];
+            undo.oldLb[k] = v.getLB();
+            undo.oldUb[k] = v.getUB();
+            v.setLB(newLb[k]);
+            v.setUB(newUb[k]);
+         }
+
+         undo.objCols = objCols.clone();
+         undo.oldObj  = new double[objCols.length];
+         if ( objCols.length > 0 ) {
+            IloNumVar[] x = new IloNumVar[objCols.length];
+            for (int k = 0; k < objCols.length; ++k) {
+               x[k]           = vars[objCols[k]];
+               undo.oldObj[k] = obj[objCols[k]];
+               obj[objCols[k]] = newObj[k];
+            }
+            cplex.setLinearCoefs(cplex.getObjective(), newObj, x);
+         }
+
+         undo.nrows = nrows;
+         undo.nnz   = nnz();
+         if ( nrows > 0 ) {
+            IloLPMatrix lp = (IloLPMatrix)cplex.LPMatrixIterator().next();
+            undo.firstRow = lp.getNrows();
+            int[][]    ind = new int[nrows][];
+            double[][] val = new double[nrows][];
+            for (int i = 0; i < nrows; ++i) {
+               int from = rowStart[i];
+               int len  = rowStart[i + 1] - from;
+               ind[i] = new int[len];
+               val[i] = new double[len];
+               System.arraycopy(colIndex, from, ind[i], 0, len);
+               System.arraycopy(value,    from, val[i], 0, len);
+            }
+            lp.addRows(rlb, rub, ind, val);
+         }
+         return undo;
+      }
+
+      int encodedSize()
+      {
+         return 4 + 4 * boundCols.length + 8 * 2 * boundCols.length
+              + 4 + 12 * objCols.length
+              + 8 + 8 * 2 * nrows + 4 * (nrows + 1) + 12 * nnz();
+      }
+
+      void encode(ByteBuffer dst)
+      {
+         ByteOrder order = dst.order();
+         dst.order(ByteOrder.LITTLE_ENDIAN);
+         int nb = boundCols.length;
+         dst.putInt(nb);
+         putInts(dst, boundCols, nb);
+         putDoubles(dst, newLb, nb);
+         putDoubles(dst, newUb, nb);
+         int no = objCols.length;
+         dst.putInt(no);
+         putInts(dst, objCols, no);
+         putDoubles(dst, newObj, no);
+         dst.putInt(nrows).putInt(nnz());
+         putDoubles(dst, rlb, nrows);
+         putDoubles(dst, rub, nrows);
+         putInts(dst, rowStart, nrows + 1);
+         putInts(dst, colIndex, nnz());
+         putDoubles(dst, value, nnz());
+         dst.order(order);
+      }
+
+      static Delta decode(ByteBuffer src) throws IOException
+      {
+         ByteOrder order = src.order();
+         src.order(ByteOrder.LITTLE_ENDIAN);
+         Delta d = new Delta();
+         int nb = src.getInt();
+         checkCount(src, nb, 4 + 8 * 2, "bound change");
+         d.boundCols = new int[nb];
+         d.newLb     = new double[nb];
+         d.newUb     = new double[nb];
+         getInts(src, d.boundCols);
+         getDoubles(src, d.newLb);
+         getDoubles(src, d.newUb);
+         int no = src.getInt();
+         checkCount(src, no, 4 + 8, "objective change");
+         d.objCols = new int[no];
+         d.newObj  = new double[no];
+         getInts(src, d.objCols);
+         getDoubles(src, d.newObj);
+         d.nrows = src.getInt();
+         int nnz = src.getInt();
+         long need = (8L * 2 + 4) * d.nrows + 4 + 12L * nnz;
+         if ( d.nrows < 0 || nnz < 0 || need > src.remaining() )
+            throw new IOException("bad delta size " + d.nrows + " rows, "
+                                  + nnz + " nonzeros");
+         d.rlb      = new double[d.nrows];
+         d.rub      = new double[d.nrows];
+         d.rowStart = new int[d.nrows + 1];
+         d.colIndex = new int[nnz];
+         d.value    = new double[nnz];
+         getDoubles(src, d.rlb);
+         getDoubles(src, d.rub);
+         getInts(src, d.rowStart);
+         getInts(src, d.colIndex);
+         getDoubles(src, d.value);
+         // the number of columns is that of the cached model, see fits()
+         checkRows(d.rowStart, d.nrows, d.colIndex, nnz, Integer.MAX_VALUE);
+         for (int k = 0; k < nb; ++k) {
+            if ( d.boundCols[k] < 0 )
+               throw new IOException("bad bound column " + d.boundCols[k]);
+         }
+         for (int k = 0; k < no; ++k) {
+            if ( d.objCols[k] < 0 )
+               throw new IOException("bad objective column " + d.objCols[k]);
+         }
+         src.order(order);
+         return d;
+      }
+
+      // Whether all columns of a decoded delta exist in a model of ncols
+      // columns.
+      boolean fits(int ncols)
+      {
+         for (int j : boundCols) {
+            if ( j >= ncols )
+               return false;
+         }
+         for (int j : objCols) {
+            if ( j >= ncols )
+               return false;
+         }
+         for (int k = 0; k < nnz(); ++k) {
+            if ( colIndex[k] >= ncols )
+               return false;
+         }
+         return true;
+      }
+   }
+
+
+   // Compact encoding of CplexServer.SolutionData: fingerprint of the
+   // solved model, status code, objective, number of values and the values.
+
+   static final Map<Integer, IloCplex.CplexStatus> STATUS = statusTable();
+
+   static Map<Integer, IloCplex.CplexStatus> statusTable()
+   {
+      Map<Integer, IloCplex.CplexStatus> table =
+         new HashMap<Integer, IloCplex.CplexStatus>();
+      for (Field f : IloCplex.CplexStatus.class.getFields()) {
+         if ( Modifier.isStatic(f.getModifiers()) &&
+              f.getType().equals(IloCplex.CplexStatus.class) ) {
+            try {
+               IloCplex.CplexStatus s = (IloCplex.CplexStatus)f.get(null);
+               table.put(s.getValue(), s);
+            }
+            catch (IllegalAccessException e) {
+               // public fields are always accessible
+            }
+         }
+      }
+      return table;
+   }
+
+   static int solutionSize(CplexServer.SolutionData sol)
+   {
+      return 8 + 4 + 8 + 4 + 8 * (sol.vals == null ? 0 : sol.vals.length);
+   }
+
+   static void encodeSolution(CplexServer.SolutionData sol, ByteBuffer dst)
+   {
+      ByteOrder order = dst.order();
+      dst.order(ByteOrder.LITTLE_ENDIAN);
+      dst.putLong(sol.model);
+      dst.putInt(sol.status == null ? -1 : sol.status.getValue());
+      dst.putDouble(sol.obj);
+      int n = sol.vals == null ? -1 : sol.vals.length;
+      dst.putInt(n);
+      if ( n > 0 )
+         putDoubles(dst, sol.vals, n);
+      dst.order(order);
+   }
+
+   static CplexServer.SolutionData decodeSolution(ByteBuffer src)
+   {
+      ByteOrder order = src.order();
+      src.order(ByteOrder.LITTLE_ENDIAN);
+      CplexServer.SolutionData sol = new CplexServer.SolutionData();
+      sol.model  = src.getLong();
+      sol.status = STATUS.get(src.getInt());
+      sol.obj    = src.getDouble();
+      int n = src.getInt();
+      if ( n > src.remaining() / 8 )
+         throw new BufferUnderflowException();
+      if ( n >= 0 ) {
+         sol.vals = new double[n];
+         getDoubles(src, sol.vals);
+      }
+      src.order(order);
+      return sol;
+   }
+
+
+   // Benchmark: random sparse LP, Java serialization of ModelData versus
+   // this format.
+
+   static byte[] serialize(Object obj) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream    os    = new ObjectOutputStream(bytes);
+      os.writeObject(obj);
+      os.close();
+      return bytes.toByteArray();
+   }
+
+   static Object deserialize(byte[] bytes)
+      throws IOException, ClassNotFoundException
+   {
+      ObjectInputStream is =
+         new ObjectInputStream(new ByteArrayInputStream(bytes));
+      try {
+         return is.readObject();
+      }
+      finally {
+         is.close();
+      }
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      int ncols     = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+      int nrows     = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+      int nnzPerRow = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+      int repeats   = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+      Random rnd = new Random(42);
+      IloCplexModeler model = new IloCplexModeler();
+      IloNumVar[] x = model.numVarArray(ncols, 0.0, 100.0);
+      double[] c = new double[ncols];
+      for (int j = 0; j < ncols; ++j)
+         c[j] = rnd.nextDouble();
+      model.addMaximize(model.scalProd(c, x));
+      for (int i = 0; i < nrows; ++i) {
+         IloLinearNumExpr row = model.linearNumExpr();
+         for (int k = 0; k < nnzPerRow; ++k)
+            row.addTerm(rnd.nextDouble(), x[rnd.nextInt(ncols)]);
+         model.addLe(row, 1000.0);
+      }
+      CplexServer.ModelData data = new CplexServer.ModelData(model, x);
+
+      long   serSize = 0, wireSize = 0;
+      double serEnc  = 0, serDec   = 0, wireEnc = 0, wireDec = 0;
+      double setModel = 0, bulkLoad = 0;
+      for (int r = 0; r < repeats; ++r) {
+         long t0 = System.nanoTime();
+         byte[] bytes = serialize(data);
+         long t1 = System.nanoTime();
+         CplexServer.ModelData back = (CplexServer.ModelData)deserialize(bytes);
+         long t2 = System.nanoTime();
+         IloCplex cplex = new IloCplex();
+         cplex.setModel(back.model);
+         long t3 = System.nanoTime();
+         cplex.end();
+
+         long t4 = System.nanoTime();
+         ModelWire w = fromModel(model, x, false);
+         ByteBuffer buf = ByteBuffer.allocateDirect(w.encodedSize());
+         w.encode(buf);
+         buf.flip();
+         long t5 = System.nanoTime();
+         ModelWire w2 = decode(buf);
+         long t6 = System.nanoTime();
+         cplex = new IloCplex();
+         w2.load(cplex);
+         long t7 = System.nanoTime();
+         cplex.end();
+
+         serSize  = bytes.length;
+         wireSize = buf.limit();
+         serEnc   += (t1 - t0) / 1e6;
+         serDec   += (t2 - t1) / 1e6;
+         setModel += (t3 - t2) / 1e6;
+         wireEnc  += (t5 - t4) / 1e6;
+         wireDec  += (t6 - t5) / 1e6;
+         bulkLoad += (t7 - t6) / 1e6;
+      }
+
+      System.out.println("Model: " + ncols + " columns, " + nrows + " rows, "
+                         + nrows * nnzPerRow + " nonzeros, " + repeats + " repeats");
+      System.out.println("                 bytes     encode ms  decode ms  load ms");
+      System.out.printf("Serialization  %10d  %10.2f %10.2f %8.2f%n",
+                        serSize, serEnc / repeats, serDec / repeats, setModel / repeats);
+      System.out.printf("ModelWire      %10d  %10.2f %10.2f %8.2f%n",
+                        wireSize, wireEnc / repeats, wireDec / repeats, bulkLoad / repeats);
+   }
+}
@@ -0,0 +1,167 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: PerThreadCallback.java
+ * --------------------------------------------------------------------------
+ *
+ * PerThreadCallback.java - Generic callback with per-thread state
+ *
+ * The pattern of BendersAtsp2, made reusable: CPLEX calls a generic
+ * callback from all its threads at once, so anything a separator writes
+ * to must belong to one thread.  A PerThreadCallback
+ *    - creates a Local for a thread in Context.Id.ThreadUp (through a
+ *      Factory) and drops it in Context.Id.ThreadDown,
+ *    - finds the Local of the calling thread by Context.Info.ThreadId,
+ *    - dispatches by context id to the Handler registered for it, and
+ *    - records calls and time per thread and context.
+ * A Local carries a buffer for the relaxation or candidate point of a
+ * VarLayout; subclasses add whatever else a separator needs.  Handlers
+ * share only read-only data, so the model can be solved with any number
+ * of threads.
+ *
+ * Usage:
+ *    PerThreadCallback<Scratch> cb = new PerThreadCallback<Scratch>(
+ *       PerThreadCallback.threads(cplex), factory);
+ *    cb.on(IloCplex.Callback.Context.Id.Relaxation, separator);
+ *    cplex.use(cb, cb.where());
+ *    cplex.solve();
+ *    System.out.print(cb.report());
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+
+public class PerThreadCallback<S extends PerThreadCallback.Local>
+   implements IloCplex.Callback.Function {
+
+   // State owned by one CPLEX thread.
+   static class Local {
+      final VarLayout layout;
+      final double[]  point;
+      final int       threadId;
+
+      // layout may be null if the handlers fetch no points.
+      Local(VarLayout layout, int threadId)
+      {
+         this.layout   = layout;
+         this.point    = layout == null ? null : layout.buffer();
+         this.threadId = threadId;
+      }
+
+      // The relaxation point in the layout's order, in the reused buffer.
+      double[] relaxation(IloCplex.Callback.Context context) throws IloException
+      {
+         layout.relaxation(context, point);
+         return point;
+      }
+
+      double[] candidate(IloCplex.Callback.Context context) throws IloException
+      {
+         layout.candidate(context, point);
+         return point;
+      }
+   }
+
+   interface Factory<S> {
+      S create(int threadId) throws IloException;
+   }
+
+   interface Handler<S> {
+      void invoke(IloCplex.Callback.Context context, S local) throws IloException;
+   }
+
+   // Context ids are single bits; kinds are their bit positions.
+   static final int KINDS = 64;
+
+   final Factory<S>   factory;
+   final Object[]     locals;
+   final Object[]     handlers = new Object[KINDS];
+   long               where    = IloCplex.Callback.Context.Id.ThreadUp |
+                                 IloCplex.Callback.Context.Id.ThreadDown;
+   // [thread][kind], each row written by its own thread only
+   final long[][]     calls;
+   final long[][]     nanos;
+
+   PerThreadCallback(int threads, Factory<S> factory)
+   {
+      this.factory = factory;
+      locals = new Object[threads];
+      calls  = new long[threads][KINDS];
+      nanos  = new long[threads][KINDS];
+   }
+
+   // Number of threads CPLEX will use for cplex.
+   static int threads(IloCplex cplex) throws IloException
+   {
+      int t = cplex.getParam(IloCplex.Param.Threads);
+      return t > 0 ? t : cplex.getNumCores();
+   }
+
+   // Call handler in the given contexts (one or more ids or-ed together).
+   PerThreadCallback<S> on(long contexts, Handler<S> handler)
+   {
+      for (int k = 0; k < KINDS; ++k)
+         if ( (contexts & (1L << k)) != 0 )
+            handlers[k] = handler;
+      where |= contexts;
+      return this;
+   }
+
+   // The contexts to pass to IloCplex.use().
+   long where()
+   {
+      return where;
+   }
+
+   @SuppressWarnings("unchecked")
+   public void invoke(IloCplex.Callback.Context context) throws IloException
+   {
+      int thread = context.getIntInfo(IloCplex.Callback.Context.Info.ThreadId);
+
+      if ( context.inThreadUp() ) {
+         locals[thread] = factory.create(thread);
+         return;
+      }
+      if ( context.inThreadDown() ) {
+         locals[thread] = null;
+         return;
+      }
+
+      int kind = Long.numberOfTrailingZeros(context.getId());
+      Handler<S> handler = (Handler<S>)handlers[kind];
+      if ( handler == null )
+         throw new IloException("Unexpected contextID");
+      S local = (S)locals[thread];
+      if ( local == null )
+         locals[thread] = local = factory.create(thread);
+
+      long start = System.nanoTime();
+      try {
+         handler.invoke(context, local);
+      }
+      finally {
+         nanos[thread][kind] += System.nanoTime() - start;
+         ++calls[thread][kind];
+      }
+   }
+
+   static String kindName(int kind)
+   {
+      return CplexEvents.contextName(1L << kind);
+   }
+
+   // Calls and time per thread and context; read after the solve.
+   String report()
+   {
+      StringBuilder sb = new StringBuilder();
+      for (int t = 0; t < calls.length; ++t) {
+         for (int k = 0; k < KINDS; ++k) {
+            if ( calls[t][k] == 0 )
+               continue;
+            sb.append(String.format("thread %2d %-14s %10d calls %10.2f ms%n",
+                                    t, kindName(k), calls[t][k],
+                                    nanos[t][k] / 1e6));
+         }
+      }
+      return sb.toString();
+   }
+}
@@ -0,0 +1,342 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: SharedMemory.java
+ * --------------------------------------------------------------------------
+ *
+ * SharedMemory.java - Memory-mapped ring buffer used by CplexServer to pass
+ *                     models and solutions between JVMs on the same host
+ *
+ * The client creates a file, maps it, and carves regions out of it in ring
+ * order.  For every request it encodes the ModelWire arrays straight into
+ * a region and sends only a descriptor (offset, length, capacity) over the
+ * socket.  The server maps the same file, decodes the model from the
+ * region and writes the solution back into it; its reply carries just the
+ * solution length.  The region is released when the reply has been read.
+ * Replies may come back out of order, so a released region is reclaimed
+ * once every region allocated before it has been released as well.
+ *
+ * Running this class benchmarks a round trip of a model and its solution
+ * vector over a loopback socket against the same round trip through the
+ * ring buffer:
+ *     java SharedMemory [ncols] [nrows] [nnzPerRow] [repeats]
+ */
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+public class SharedMemory implements Closeable {
+   static final int ALIGN = 8;   // keep the double arrays 8-byte aligned
+
+   final File             file;
+   final FileChannel      channel;
+   final MappedByteBuffer map;
+   final int              capacity;
+
+   // allocated regions in ring order, and the next free offset
+   final ArrayDeque<Region> regions = new ArrayDeque<Region>();
+   int                      head;
+
+   static class Region {
+      final int offset;
+      final int size;
+      boolean   released;
+
+      Region(int offset, int size)
+      {
+         this.offset = offset;
+         this.size   = size;
+      }
+   }
+
+   SharedMemory(File file, int capacity, boolean create) throws IOException
+   {
+      this.file = file;
+      if ( create )
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING);
+      else
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+      if ( !create )
+         capacity = (int)Math.min(channel.size(), Integer.MAX_VALUE);
+      this.capacity = capacity;
+      map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+   }
+
+   // Create and map a new ring buffer file (client side).
+   static SharedMemory create(File file, int capacity) throws IOException
+   {
+      return new SharedMemory(file, capacity, true);
+   }
+
+   // Map an existing ring buffer file (server side).
+   static SharedMemory open(File file) throws IOException
+   {
+      return new SharedMemory(file, 0, false);
+   }
+
+   // Reserve size bytes, waiting for earlier regions to be released if the
+   // ring is full.
+   synchronized Region allocate(int size) throws IOException,
+                                                 InterruptedException
+   {
+      size = (size + ALIGN - 1) / ALIGN * ALIGN;
+      if ( size > capacity )
+         throw new IOException(size + " bytes do not fit into the "
+                               + capacity + " byte ring buffer");
+      while ( true ) {
+         int offset = -1;
+         if ( regions.isEmpty() ) {
+            offset = 0;
+         }
+         else {
+            int tail = regions.peekFirst().offset;
+            if ( head > tail ) {
+               // free space at the end, then in front of the tail
+               if ( head + size <= capacity )
+                  offset = head;
+               else if ( size <= tail )
+                  offset = 0;
+            }
+            else if ( head + size <= tail ) {
+               offset = head;
+            }
+         }
+         if ( offset >= 0 ) {
+            Region r = new Region(offset, size);
+            regions.addLast(r);
+            head = offset + size;
+            return r;
+         }
+         wait();
+      }
+   }
+
+   synchronized void release(Region r)
+   {
+      r.released = true;
+      while ( !regions.isEmpty() && regions.peekFirst().released )
+         regions.pollFirst();
+      if ( regions.isEmpty() )
+         head = 0;
+      notifyAll();
+   }
+
+   // Whether length bytes at offset lie inside the mapping.
+   boolean contains(int offset, int length)
+   {
+      return offset >= 0 && length >= 0 && offset <= capacity - length;
+   }
+
+   // View of length bytes at offset; safe to use from several threads at
+   // once since the shared mapping itself is never repositioned.
+   ByteBuffer region(int offset, int length)
+   {
+      if ( !contains(offset, length) )
+         throw new IndexOutOfBoundsException("region " + offset + "+" + length
+                                             + " outside " + capacity + " bytes");
+      ByteBuffer buf = map.duplicate();
+      buf.limit(offset + length);
+      buf.position(offset);
+      return buf.slice();
+   }
+
+   public void close() throws IOException
+   {
+      channel.close();
+   }
+
+
+   // Random model with nnzPerRow nonzeros in every row, built directly in
+   // columnar form.
+   static ModelWire randomModel(int ncols, int nrows, int nnzPerRow)
+   {
+      return randomModel(ncols, nrows, nnzPerRow, 42);
+   }
+
+   // Models with different seeds differ in structure, not only in values.
+   static ModelWire randomModel(int ncols, int nrows, int nnzPerRow, long seed)
+   {
+      Random rnd = new Random(seed);
+      ModelWire w = new ModelWire(ncols, nrows, nrows * nnzPerRow);
+      w.maximize = true;
+      for (int j = 0; j < ncols; ++j) {
+         w.ub[j]  = 100.0;
+         w.obj[j] = rnd.nextDouble();
+      }
+      int k = 0;
+      for (int i = 0; i < nrows; ++i) {
+         w.rlb[i] = Double.NEGATIVE_INFINITY;
+         w.rub[i] = 1000.0;
+         w.rowStart[i] = k;
+         for (int n = 0; n < nnzPerRow; ++n, ++k) {
+            w.colIndex[k] = rnd.nextInt(ncols);
+            w.value[k]    = rnd.nextDouble();
+         }
+      }
+      w.rowStart[nrows] = k;
+      return w;
+   }
+
+   static CplexServer.SolutionData solutionFor(ModelWire model)
+   {
+      CplexServer.SolutionData sol = new CplexServer.SolutionData();
+      sol.model  = 1;
+      sol.status = ilog.cplex.IloCplex.CplexStatus.Optimal;
+      sol.vals   = new double[model.ncols];
+      return sol;
+   }
+
+   static void readFully(SocketChannel ch, ByteBuffer buf) throws IOException
+   {
+      while ( buf.hasRemaining() ) {
+         if ( ch.read(buf) < 0 )
+            throw new EOFException();
+      }
+   }
+
+   static void writeFully(SocketChannel ch, ByteBuffer buf) throws IOException
+   {
+      while ( buf.hasRemaining() )
+         ch.write(buf);
+   }
+
+   // Read one length-prefixed frame.
+   static ByteBuffer readFrame(SocketChannel ch) throws IOException
+   {
+      ByteBuffer length = ByteBuffer.allocate(4);
+      readFully(ch, length);
+      length.flip();
+      ByteBuffer msg = ByteBuffer.allocateDirect(length.getInt());
+      readFully(ch, msg);
+      msg.flip();
+      msg.position(CplexServer.HEADER);
+      return msg;
+   }
+
+   // Peer of the benchmark: decodes every model it gets and answers with a
+   // solution vector, either on the socket or in the shared region.
+   static class Echo extends Thread {
+      final SocketChannel ch;
+      final SharedMemory  shm;   // null for the socket transport
+      final int           repeats;
+
+      Echo(SocketChannel ch, SharedMemory shm, int repeats)
+      {
+         this.ch      = ch;
+         this.shm     = shm;
+         this.repeats = repeats;
+      }
+
+      public void run()
+      {
+         try {
+            for (int r = 0; r < repeats; ++r) {
+               ByteBuffer msg = readFrame(ch);
+               msg.position(msg.position() + CplexServer.OPTIONS);
+               if ( shm == null ) {
+                  ModelWire model = ModelWire.decode(msg.slice());
+                  writeFully(ch, CplexServer.solutionFrame(r, solutionFor(model)));
+               }
+               else {
+                  int offset   = msg.getInt();
+                  int length   = msg.getInt();
+                  int capacity = msg.getInt();
+                  ModelWire model = ModelWire.decode(shm.region(offset, length));
+                  CplexServer.SolutionData sol = solutionFor(model);
+                  ModelWire.encodeSolution(sol, shm.region(offset, capacity));
+                  writeFully(ch, CplexServer.shmSolutionFrame(r,
+                                 ModelWire.solutionSize(sol)));
+               }
+            }
+         }
+         catch (IOException e) {
+            System.err.println("echo terminates due to " + e);
+         }
+      }
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      int ncols     = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+      int nrows     = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+      int nnzPerRow = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+      int repeats   = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+      ModelWire model = randomModel(ncols, nrows, nnzPerRow);
+      int modelSize = model.encodedSize();
+      int solSize   = 8 + 4 + 8 + 4 + 8 * ncols;
+      File file = File.createTempFile("cplexshm", ".ring");
+      file.deleteOnExit();
+
+      ServerSocketChannel acceptor = ServerSocketChannel.open();
+      acceptor.bind(new InetSocketAddress("localhost", 0));
+      double[] ms = new double[2];
+      for (int t = 0; t < 2; ++t) {
+         boolean shared = t == 1;
+         SharedMemory client = shared
+            ? create(file, 2 * Math.max(modelSize, solSize)) : null;
+         SocketChannel ch = SocketChannel.open(acceptor.getLocalAddress());
+         SocketChannel peer = acceptor.accept();
+         Echo echo = new Echo(peer, shared ? open(file) : null, repeats + 1);
+         echo.start();
+
+         // the first round trip warms up
+         for (int r = 0; r <= repeats; ++r) {
+            long t0 = System.nanoTime();
+            CplexServer.SolutionData sol;
+            if ( !shared ) {
+               writeFully(ch, CplexServer.modelFrame(r, (byte)0,
+                                                     CplexServer.BATCH, 0.0,
+                                                     model));
+               sol = ModelWire.decodeSolution(readFrame(ch).slice());
+            }
+            else {
+               int size = Math.max(modelSize, solSize);
+               Region region = client.allocate(size);
+               model.encode(client.region(region.offset, size));
+               writeFully(ch, CplexServer.shmModelFrame(r, (byte)0,
+                                                        CplexServer.BATCH, 0.0,
+                                                        region.offset,
+                                                        modelSize, size));
+               int length = readFrame(ch).getInt();
+               sol = ModelWire.decodeSolution(client.region(region.offset,
+                                                            length));
+               client.release(region);
+            }
+            if ( sol.vals.length != ncols )
+               throw new IOException("bad solution");
+            if ( r > 0 )
+               ms[t] += (System.nanoTime() - t0) / 1e6;
+         }
+         echo.join();
+         ch.close();
+         peer.close();
+         if ( echo.shm != null )
+            echo.shm.close();
+         if ( client != null )
+            client.close();
+      }
+      acceptor.close();
+
+      double mb = (modelSize + solSize) / 1e6;
+      System.out.println("Model: " + ncols + " columns, " + nrows + " rows, "
+                         + nrows * nnzPerRow + " nonzeros, " + repeats
+                         + " repeats, " + mb + " MB per round trip");
+      System.out.println("                 ms/round trip      MB/s");
+      System.out.printf("Socket         %12.2f  %10.1f%n",
+                        ms[0] / repeats, mb * repeats / (ms[0] / 1000.0));
+      System.out.printf("Shared memory  %12.2f  %10.1f%n",
+                        ms[1] / repeats, mb * repeats / (ms[1] / 1000.0));
+   }
+}
@@ -0,0 +1,206 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: SolverMonitor.java
+ * --------------------------------------------------------------------------
+ *
+ * SolverMonitor.java - Live solver statistics over JMX
+ *
+ * A generic callback in Context.Id.GlobalProgress keeps the latest nodes
+ * processed, open nodes, best bound, incumbent, gap and simplex iterations
+ * in volatile fields that the platform MBean server reads on demand, so a
+ * long solve can be watched from jconsole, VisualVM or any JMX client.
+ * The abort() operation goes through an IloCplex.Aborter installed on
+ * the same IloCplex.
+ *
+ * An IloCplex has only one generic callback, so the monitor can wrap the
+ * application's own callback: the monitor handles GlobalProgress itself
+ * and forwards the contexts the application asked for, measuring the time
+ * spent in it.  Cuts are not visible from the outside of a callback; a
+ * callback that separates them reports them with addUserCuts().
+ *
+ * Usage:
+ *    SolverMonitor monitor = SolverMonitor.attach(cplex, myCallback,
+ *                               IloCplex.Callback.Context.Id.Relaxation);
+ *    monitor.register("facility");   // examples:type=SolverMonitor,name=facility
+ *    cplex.solve();
+ *    monitor.close();
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class SolverMonitor implements SolverMonitorMBean,
+                                      IloCplex.Callback.Function, Closeable {
+   final IloCplex.Aborter           aborter = new IloCplex.Aborter();
+   final IloCplex.Callback.Function user;
+   final long                       userWhere;
+
+   volatile long   nodes;
+   volatile long   openNodes;
+   volatile long   iterations;
+   volatile double bound     = Double.NaN;
+   volatile double incumbent = Double.NaN;
+   volatile double gap       = Double.POSITIVE_INFINITY;
+   volatile double time;
+
+   final AtomicLong userCuts      = new AtomicLong();
+   final AtomicLong callbackCalls = new AtomicLong();
+   final AtomicLong callbackNanos = new AtomicLong();
+
+   ObjectName name;
+
+   // user may be null; it is invoked for the contexts in userWhere.
+   SolverMonitor(IloCplex.Callback.Function user, long userWhere)
+   {
+      this.user      = user;
+      this.userWhere = user == null ? 0 : userWhere;
+   }
+
+   // Install a monitor around user (may be null) and its aborter on cplex.
+   static SolverMonitor attach(IloCplex cplex, IloCplex.Callback.Function user,
+                               long where) throws IloException
+   {
+      SolverMonitor monitor = new SolverMonitor(user, where);
+      cplex.use(monitor.aborter);
+      cplex.use(monitor, monitor.userWhere |
+                         IloCplex.Callback.Context.Id.GlobalProgress);
+      return monitor;
+   }
+
+   public void invoke(IloCplex.Callback.Context context) throws IloException
+   {
+      if ( context.inGlobalProgress() )
+         progress(context);
+      if ( (context.getId() & userWhere) != 0 ) {
+         long start = System.nanoTime();
+         try {
+            user.invoke(context);
+         }
+         finally {
+            callbackNanos.addAndGet(System.nanoTime() - start);
+            callbackCalls.incrementAndGet();
+         }
+      }
+   }
+
+   // GlobalProgress invocations are serialized by CPLEX, so plain volatile
+   // stores are enough.
+   void progress(IloCplex.Callback.Context context) throws IloException
+   {
+      double bnd =
+         context.getDoubleInfo(IloCplex.Callback.Context.Info.BestBound);
+      nodes      = context.getLongInfo(IloCplex.Callback.Context.Info.NodeCount);
+      openNodes  = context.getLongInfo(IloCplex.Callback.Context.Info.NodesLeft);
+      iterations = context.getLongInfo(IloCplex.Callback.Context.Info.IterationCount);
+      time       = context.getDoubleInfo(IloCplex.Callback.Context.Info.Time);
+      bound      = bnd;
+      if ( context.getIntInfo(IloCplex.Callback.Context.Info.Feasible) != 0 ) {
+         double inc = context.getIncumbentObjective();
+         incumbent = inc;
+         gap       = Math.abs(inc - bnd) / (1e-10 + Math.abs(inc));
+      }
+   }
+
+   // Called by callbacks for every cut they add.
+   void addUserCuts(int n)
+   {
+      userCuts.addAndGet(n);
+   }
+
+   // Publish under examples:type=SolverMonitor,name=<name>.
+   void register(String name) throws JMException
+   {
+      ObjectName on = new ObjectName("examples:type=SolverMonitor,name="
+                                     + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+      this.name = on;
+   }
+
+   // Unregister; the statistics stay readable on the object.
+   public void close()
+   {
+      if ( name == null )
+         return;
+      try {
+         ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      }
+      catch (JMException e) {
+         // already gone
+      }
+      name = null;
+   }
+
+   public long getNodes()
+   {
+      return nodes;
+   }
+
+   public long getOpenNodes()
+   {
+      return openNodes;
+   }
+
+   public double getBestBound()
+   {
+      return bound;
+   }
+
+   public double getIncumbent()
+   {
+      return incumbent;
+   }
+
+   public double getGap()
+   {
+      return gap;
+   }
+
+   public long getSimplexIterations()
+   {
+      return iterations;
+   }
+
+   public long getUserCuts()
+   {
+      return userCuts.get();
+   }
+
+   public long getCallbackInvocations()
+   {
+      return callbackCalls.get();
+   }
+
+   public double getCallbackTimeMillis()
+   {
+      return callbackNanos.get() / 1e6;
+   }
+
+   public double getSolveTimeSeconds()
+   {
+      return time;
+   }
+
+   public boolean isAborted()
+   {
+      return aborter.isAborted();
+   }
+
+   public void abort()
+   {
+      aborter.abort();
+   }
+
+   public String toString()
+   {
+      return "nodes " + nodes + " (" + openNodes + " open), bound " + bound +
+             ", incumbent " + incumbent + ", gap " + gap +
+             ", iterations " + iterations + ", user cuts " + userCuts.get() +
+             ", callback " + callbackCalls.get() + " calls / " +
+             getCallbackTimeMillis() + " ms";
+   }
+}
@@ -0,0 +1,27 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: SolverMonitorMBean.java
+ * --------------------------------------------------------------------------
+ *
+ * SolverMonitorMBean.java - Management interface of SolverMonitor
+ *
+ * JMX requires a standard MBean interface to be public and to be named
+ * after the implementing class, hence this separate file.
+ */
+
+public interface SolverMonitorMBean {
+   long    getNodes();
+   long    getOpenNodes();
+   double  getBestBound();
+   double  getIncumbent();
+   double  getGap();
+   long    getSimplexIterations();
+   long    getUserCuts();
+   long    getCallbackInvocations();
+   double  getCallbackTimeMillis();
+   double  getSolveTimeSeconds();
+   boolean isAborted();
+
+   // Stop the solve at the next opportunity, as IloCplex.Aborter.abort().
+   void    abort();
+}
@@ -0,0 +1,240 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: StoppingPolicy.java
+ * --------------------------------------------------------------------------
+ *
+ * StoppingPolicy.java - Composable rules for stopping a MIP early
+ *
+ * A generic callback in Context.Id.GlobalProgress keeps track of the
+ * search (time, nodes, bound, incumbent, gap, and when the incumbent and
+ * the bound last improved) and asks a Rule whether the solution is good
+ * enough.  As soon as a rule says so, the policy remembers why and stops
+ * the solve with context.abort().
+ *
+ * Rules:
+ *    gapCurve(times, gaps)      accept gap <= gaps[k] after times[k] seconds,
+ *                               linearly interpolated between the points
+ *    noImprovement(s)           no better incumbent for s seconds
+ *    boundStall(s, tol)         best bound moved less than tol (relative)
+ *                               for s seconds
+ *    nodeBudget(n)              n nodes processed
+ *    anyOf(rules...), allOf(rules...)
+ *
+ * Times are seconds since the start of the optimization, as reported by
+ * Context.Info.Time.  MIPex4.TimeLimitCallback is gapCurve({1.0}, {0.10}).
+ *
+ * Usage:
+ *    StoppingPolicy policy = new StoppingPolicy(StoppingPolicy.anyOf(
+ *       StoppingPolicy.gapCurve(new double[] {10, 60}, new double[] {0.01, 0.05}),
+ *       StoppingPolicy.noImprovement(120)));
+ *    cplex.use(policy, IloCplex.Callback.Context.Id.GlobalProgress);
+ *    cplex.solve();
+ *    System.out.println(policy.reason());
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StoppingPolicy implements IloCplex.Callback.Function {
+   // What the rules see.  One instance is reused for every invocation.
+   static class Progress {
+      double  time;
+      long    nodes;
+      long    nodesLeft;
+      double  bound;
+      boolean feasible;
+      double  incumbent;
+      double  gap;               // relative, infinity without incumbent
+      double  lastImprovement;   // time of the last better incumbent
+   }
+
+   // A stopping rule.  Returns why to stop, or null to go on.  Reasons are
+   // built when the rule is created, so checking allocates nothing.
+   interface Rule {
+      String check(Progress p);
+   }
+
+   static Rule gapCurve(final double[] times, final double[] gaps)
+   {
+      if ( times.length == 0 || times.length != gaps.length )
+         throw new IllegalArgumentException("need matching time and gap points");
+      final String reason = "gap curve reached";
+      return new Rule() {
+         public String check(Progress p) {
+            if ( !p.feasible || p.time < times[0] )
+               return null;
+            double accept = gaps[gaps.length - 1];
+            for (int k = 1; k < times.length; ++k) {
+               if ( p.time < times[k] ) {
+                  double f = (p.time - times[k - 1]) / (times[k] - times[k - 1]);
+                  accept = gaps[k - 1] + f * (gaps[k] - gaps[k - 1]);
+                  break;
+               }
+            }
+            return p.gap <= accept ? reason : null;
+         }
+      };
+   }
+
+   static Rule noImprovement(final double seconds)
+   {
+      final String reason = "no better incumbent for " + seconds + " s";
+      return new Rule() {
+         public String check(Progress p) {
+            return p.feasible && p.time - p.lastImprovement >= seconds
+                   ? reason : null;
+         }
+      };
+   }
+
+   // Every boundStall rule tracks the bound with its own tolerance.
+   static Rule boundStall(final double seconds, double tolerance)
+   {
+      final String reason = "bound stalled for " + seconds + " s";
+      return new StallRule(tolerance) {
+         public String check(Progress p) {
+            return p.time - lastMove >= seconds ? reason : null;
+         }
+      };
+   }
+
+   static Rule nodeBudget(final long nodes)
+   {
+      final String reason = "node budget of " + nodes + " used";
+      return new Rule() {
+         public String check(Progress p) {
+            return p.nodes >= nodes ? reason : null;
+         }
+      };
+   }
+
+   static Rule anyOf(final Rule... rules)
+   {
+      return new Composite(rules) {
+         public String check(Progress p) {
+            for (Rule r : rules) {
+               String why = r.check(p);
+               if ( why != null )
+                  return why;
+            }
+            return null;
+         }
+      };
+   }
+
+   static Rule allOf(final Rule... rules)
+   {
+      return new Composite(rules) {
+         public String check(Progress p) {
+            String why = null;
+            for (Rule r : rules) {
+               why = r.check(p);
+               if ( why == null )
+                  return null;
+            }
+            return why;
+         }
+      };
+   }
+
+   // A rule that needs to know when the bound last moved by more than
+   // its tolerance.  The policy shows every bound to all its stall rules
+   // before checking, so anyOf() and allOf() cutting the check short do
+   // not make one miss a move.  A stall rule belongs to one policy.
+   abstract static class StallRule implements Rule {
+      final double tolerance;
+      double       boundAtMove = Double.NaN;
+      double       lastMove;   // time the bound last moved
+
+      StallRule(double tolerance)
+      {
+         this.tolerance = tolerance;
+      }
+
+      void observe(Progress p)
+      {
+         if ( Double.isNaN(boundAtMove) ||
+              Math.abs(p.bound - boundAtMove) > tolerance * (1.0 + Math.abs(p.bound)) ) {
+            boundAtMove = p.bound;
+            lastMove    = p.time;
+         }
+      }
+   }
+
+   abstract static class Composite implements Rule {
+      final Rule[] rules;
+
+      Composite(Rule[] rules)
+      {
+         this.rules = rules;
+      }
+   }
+
+   // all stall rules in rule
+   static void stallRules(Rule rule, List<StallRule> out)
+   {
+      if ( rule instanceof StallRule )
+         out.add((StallRule)rule);
+      else if ( rule instanceof Composite )
+         for (Rule r : ((Composite)rule).rules)
+            stallRules(r, out);
+   }
+
+   final Rule        rule;
+   final StallRule[] stalls;
+   final Progress    progress = new Progress();
+   volatile String   reason;
+
+   StoppingPolicy(Rule rule)
+   {
+      this.rule = rule;
+      List<StallRule> found = new ArrayList<StallRule>();
+      stallRules(rule, found);
+      stalls = found.toArray(new StallRule[found.size()]);
+   }
+
+   // Why the solve was stopped, or null if no rule fired.
+   String reason()
+   {
+      return reason;
+   }
+
+   public synchronized void invoke(IloCplex.Callback.Context context)
+      throws IloException
+   {
+      if ( !context.inGlobalProgress() || reason != null )
+         return;
+
+      Progress p  = progress;
+      p.time      = context.getDoubleInfo(IloCplex.Callback.Context.Info.Time);
+      p.nodes     = context.getLongInfo(IloCplex.Callback.Context.Info.NodeCount);
+      p.nodesLeft = context.getLongInfo(IloCplex.Callback.Context.Info.NodesLeft);
+      p.bound     = context.getDoubleInfo(IloCplex.Callback.Context.Info.BestBound);
+
+      boolean feasible =
+         context.getIntInfo(IloCplex.Callback.Context.Info.Feasible) != 0;
+      if ( feasible ) {
+         double inc = context.getIncumbentObjective();
+         if ( !p.feasible ||
+              Math.abs(inc - p.incumbent) > 1e-9 * (1.0 + Math.abs(inc)) )
+            p.lastImprovement = p.time;
+         p.incumbent = inc;
+         p.gap = Math.abs(inc - p.bound) / (1e-10 + Math.abs(inc));
+      }
+      else {
+         p.gap = Double.POSITIVE_INFINITY;
+      }
+      p.feasible = feasible;
+
+      for (StallRule s : stalls)
+         s.observe(p);
+
+      String why = rule.check(p);
+      if ( why != null ) {
+         reason = why;
+         context.abort();
+      }
+   }
+}
@@ -0,0 +1,82 @@
+package examples;
+/* --------------------------------------------------------------------------
+ * File: VarLayout.java
+ * --------------------------------------------------------------------------
+ *
+ * VarLayout.java - Flat layout of model variables for bulk point fetches
+ *
+ * Callbacks that look at many variables one getRelaxationPoint(var) or
+ * getCandidatePoint(var) at a time pay a native call per variable.  A
+ * VarLayout concatenates the variable arrays a callback works with into
+ * one IloNumVar[], fixed when the callback is set up, so the whole point
+ * comes over in a single bulk call into a reusable double[]:
+ *
+ *    VarLayout layout = new VarLayout();
+ *    int openedAt = layout.add(opened);          // opened[j] at openedAt + j
+ *    int supplyAt = layout.add(supply);          // supply[c][j] at
+ *                                                //    supplyAt + c * nbLocations + j
+ *    double[] x = layout.buffer();
+ *    ...
+ *    layout.relaxation(context, x);
+ *    double s = x[supplyAt + c * nbLocations + j];
+ *
+ * A layout is not changed after setup and can be shared between threads;
+ * buffers belong to one thread.
+ */
+
+import ilog.concert.*;
+import ilog.cplex.*;
+
+public class VarLayout {
+   IloNumVar[] vars = new IloNumVar[0];
+
+   // Append v, return the index of v[0].
+   int add(IloNumVar[] v)
+   {
+      int at = vars.length;
+      IloNumVar[] all = new IloNumVar[at + v.length];
+      System.arraycopy(vars, 0, all, 0, at);
+      System.arraycopy(v, 0, all, at, v.length);
+      vars = all;
+      return at;
+   }
+
+   // Append the rows of v in order, return the index of v[0][0].  With
+   // rows of equal length n, v[i][j] is at the result + i * n + j.
+   int add(IloNumVar[][] v)
+   {
+      int at = vars.length;
+      for (IloNumVar[] row : v)
+         add(row);
+      return at;
+   }
+
+   int size()
+   {
+      return vars.length;
+   }
+
+   IloNumVar[] vars()
+   {
+      return vars;
+   }
+
+   double[] buffer()
+   {
+      return new double[vars.length];
+   }
+
+   // Fill x with the relaxation point of the current node.
+   void relaxation(IloCplex.Callback.Context context, double[] x)
+      throws IloException
+   {
+      context.getRelaxationPoint(vars, x, 0, vars.length);
+   }
+
+   // Fill x with the candidate point.
+   void candidate(IloCplex.Callback.Context context, double[] x)
+      throws IloException
+   {
+      context.getCandidatePoint(vars, x, 0, vars.length);
+   }
+}